@@ -0,0 +1,213 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps resolved classpaths per pom file and variant (the scope, plus any other option that changes the
+ * resolution), for the life of the JVM and, through {@link #save(File)}, across restarts. An entry is valid as long
+ * as the pom file and its parent poms have not been modified since it was resolved, and the Maven configuration it was
+ * resolved with is unchanged. Anything else a resolution depends on, like a newer SNAPSHOT or a new match for a
+ * version range in a remote repository, is only seen once one of those changes.
+ * <p/>
+ * All entries share one {@link PathSegmentTable}, which is rebuilt from the cached entries once more entries have
+ * been replaced than are cached, so paths of classpaths that are no longer cached do not pile up.
+ */
+public class ClasspathCache {
+
+    private static final String FORMAT = "classpath-cache 2";
+
+    private volatile PathSegmentTable segmentTable = new PathSegmentTable();
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicInteger replacedEntries = new AtomicInteger();
+
+    /**
+     * @param configuration identifies the Maven configuration the classpath must have been resolved with
+     */
+    public CompactClasspath get(File pomFile, String variant, String configuration) {
+        Entry entry = entries.get(key(pomFile, variant));
+        if (entry == null || !entry.configuration.equals(configuration) || entry.isModified()) {
+            return null;
+        }
+        return entry.classpath;
+    }
+
+    /**
+     * @param parentPomFiles the parent poms read while building the pom, which invalidate the entry when modified
+     */
+    public CompactClasspath put(File pomFile, String variant, String configuration, List<File> parentPomFiles,
+                               List<String> classpathEntries, String entriesDigest) {
+        CompactClasspath classpath = new CompactClasspath(segmentTable, classpathEntries, entriesDigest);
+        List<File> pomFiles = new ArrayList<File>();
+        pomFiles.add(pomFile);
+        pomFiles.addAll(parentPomFiles);
+        Entry replaced = entries.put(key(pomFile, variant), new Entry(configuration, inputs(pomFiles), classpath));
+        if (replaced != null && replacedEntries.incrementAndGet() > entries.size()) {
+            compact();
+        }
+        return classpath;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Exposed for testing
+     */
+    int segmentNodeCount() {
+        return segmentTable.nodeCount();
+    }
+
+    /**
+     * Copies the cached classpaths to a fresh segment table. Classpaths handed out before keep the old table alive
+     * until they are dropped.
+     */
+    private synchronized void compact() {
+        replacedEntries.set(0);
+        PathSegmentTable compacted = new PathSegmentTable();
+        for (Map.Entry<String, Entry> cached : entries.entrySet()) {
+            Entry entry = cached.getValue();
+            CompactClasspath classpath = new CompactClasspath(compacted, entry.classpath,
+                    entry.classpath.getEntriesDigest());
+            entries.replace(cached.getKey(), entry, new Entry(entry.configuration, entry.inputs, classpath));
+        }
+        segmentTable = compacted;
+    }
+
+    /**
+     * Writes all entries to a file. After a format line, every entry is a <code>key</code> line followed by its
+     * <code>configuration</code>, <code>digest</code>, <code>input</code> and <code>entry</code> lines, each a name
+     * and a value separated by a tab.
+     */
+    public void save(File cacheFile) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(cacheFile), "UTF-8");
+        try {
+            writer.write(FORMAT + "\n");
+            for (Map.Entry<String, Entry> cached : entries.entrySet()) {
+                Entry entry = cached.getValue();
+                writer.write("key\t" + cached.getKey() + "\n");
+                writer.write("configuration\t" + entry.configuration + "\n");
+                writer.write("digest\t" + entry.classpath.getEntriesDigest() + "\n");
+                for (Input input : entry.inputs) {
+                    writer.write("input\t" + input.lastModified + "\t" + input.file.getPath() + "\n");
+                }
+                for (String classpathEntry : entry.classpath) {
+                    writer.write("entry\t" + classpathEntry + "\n");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Adds the entries of a file written by {@link #save(File)}. Entries whose poms or configuration changed since
+     * are ignored on lookup.
+     */
+    public void load(File cacheFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), "UTF-8"));
+        try {
+            if (!FORMAT.equals(reader.readLine())) {
+                throw new IOException("Malformed classpath cache file " + cacheFile + ": expected '" + FORMAT
+                        + "' on the first line, written by an older version?");
+            }
+            Loaded loaded = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                String[] field = line.split("\t", 2);
+                if ("key".equals(field[0])) {
+                    addLoaded(loaded);
+                    loaded = new Loaded(field[1]);
+                } else if ("configuration".equals(field[0])) {
+                    loaded.configuration = field[1];
+                } else if ("digest".equals(field[0])) {
+                    loaded.entriesDigest = field[1];
+                } else if ("input".equals(field[0])) {
+                    String[] input = field[1].split("\t", 2);
+                    loaded.inputs.add(new Input(new File(input[1]), Long.parseLong(input[0])));
+                } else if ("entry".equals(field[0])) {
+                    loaded.classpathEntries.add(field[1]);
+                } else {
+                    throw new IOException("Malformed classpath cache file " + cacheFile + ": unexpected line " + line);
+                }
+            }
+            addLoaded(loaded);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed classpath cache file " + cacheFile + ": " + e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void addLoaded(Loaded loaded) {
+        if (loaded != null && loaded.configuration != null && !loaded.inputs.isEmpty()) {
+            entries.put(loaded.key, new Entry(loaded.configuration, loaded.inputs,
+                    new CompactClasspath(segmentTable, loaded.classpathEntries, loaded.entriesDigest)));
+        }
+    }
+
+    private String key(File pomFile, String variant) {
+        return pomFile.getAbsolutePath() + "@" + variant;
+    }
+
+    private static List<Input> inputs(List<File> pomFiles) {
+        List<Input> inputs = new ArrayList<Input>();
+        for (File pomFile : pomFiles) {
+            inputs.add(new Input(pomFile.getAbsoluteFile(), pomFile.lastModified()));
+        }
+        return Collections.unmodifiableList(inputs);
+    }
+
+    private static class Entry {
+        private final String configuration;
+        private final List<Input> inputs;
+        private final CompactClasspath classpath;
+
+        private Entry(String configuration, List<Input> inputs, CompactClasspath classpath) {
+            this.configuration = configuration;
+            this.inputs = inputs;
+            this.classpath = classpath;
+        }
+
+        private boolean isModified() {
+            for (Input input : inputs) {
+                if (input.file.lastModified() != input.lastModified) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Input {
+        private final File file;
+        private final long lastModified;
+
+        private Input(File file, long lastModified) {
+            this.file = file;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static class Loaded {
+        private final String key;
+        private String configuration;
+        private String entriesDigest;
+        private final List<Input> inputs = new ArrayList<Input>();
+        private final List<String> classpathEntries = new ArrayList<String>();
+
+        private Loaded(String key) {
+            this.key = key;
+        }
+    }
+}
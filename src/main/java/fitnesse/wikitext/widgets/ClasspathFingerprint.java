@@ -0,0 +1,140 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stable hash over an ordered classpath. Each jar contributes its path, size and modification time; directories
+ * (like <code>target/classes</code>) contribute the relative path, size and modification time of every file below
+ * them. File contents are never read.
+ * <p/>
+ * The paths only change when the classpath is resolved again, so they are hashed once into an
+ * {@link #entriesDigest entries digest}; sizes and modification times are looked up on every call. An instance
+ * remembers the listing of each directory it walked and only lists a directory again once its modification time
+ * changed. Rewriting a file in place does not touch its directory, so files are still looked up one by one.
+ */
+public class ClasspathFingerprint {
+
+    /**
+     * Directories modified this recently may change again within the resolution of their modification time.
+     */
+    private static final long SETTLE_MILLIS = 2000;
+
+    private final ConcurrentMap<File, Listing> listings = new ConcurrentHashMap<File, Listing>();
+
+    /**
+     * Hash over the paths of the entries, in order.
+     */
+    public static String entriesDigest(List<String> classpathEntries) {
+        Digest digest = new Digest();
+        for (String classpathEntry : classpathEntries) {
+            digest.update("entry", classpathEntry);
+        }
+        return digest.toHex();
+    }
+
+    /**
+     * @param entriesDigest the {@link #entriesDigest} of <code>classpathEntries</code>
+     */
+    public String of(String entriesDigest, List<String> classpathEntries) {
+        Digest digest = new Digest();
+        digest.update("entries", entriesDigest);
+        for (String classpathEntry : classpathEntries) {
+            File entry = new File(classpathEntry);
+            if (entry.isDirectory()) {
+                addDirectory(digest, entry, "");
+            } else if (entry.isFile()) {
+                digest.update("file", entry.length() + ":" + entry.lastModified());
+            } else {
+                digest.update("missing", "");
+            }
+        }
+        return digest.toHex();
+    }
+
+    private void addDirectory(Digest digest, File directory, String relativePath) {
+        Listing listing = list(directory);
+        for (int i = 0; i < listing.files.length; i++) {
+            File file = listing.files[i];
+            String path = relativePath + "/" + file.getName();
+            if (listing.directories[i]) {
+                addDirectory(digest, file, path);
+            } else {
+                digest.update(path, file.length() + ":" + file.lastModified());
+            }
+        }
+    }
+
+    private Listing list(File directory) {
+        long lastModified = directory.lastModified();
+        Listing listing = listings.get(directory);
+        if (listing != null && listing.lastModified == lastModified) {
+            return listing;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            listings.remove(directory);
+            return Listing.EMPTY;
+        }
+        Arrays.sort(files);
+        listing = new Listing(lastModified, files);
+        if (System.currentTimeMillis() - lastModified > SETTLE_MILLIS) {
+            listings.put(directory, listing);
+        } else {
+            listings.remove(directory);
+        }
+        return listing;
+    }
+
+    private static class Listing {
+        static final Listing EMPTY = new Listing(0, new File[0]);
+
+        final long lastModified;
+        final File[] files;
+        final boolean[] directories;
+
+        Listing(long lastModified, File[] files) {
+            this.lastModified = lastModified;
+            this.files = files;
+            this.directories = new boolean[files.length];
+            for (int i = 0; i < files.length; i++) {
+                directories[i] = files[i].isDirectory();
+            }
+        }
+    }
+
+    private static class Digest {
+        private final MessageDigest digest;
+
+        Digest() {
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void update(String name, String value) {
+            try {
+                digest.update((name + "=" + value + "\n").getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        String toHex() {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+    }
+}
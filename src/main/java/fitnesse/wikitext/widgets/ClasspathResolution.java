@@ -0,0 +1,88 @@
+package fitnesse.wikitext.widgets;
+
+import org.sonatype.aether.transfer.AbstractTransferListener;
+import org.sonatype.aether.transfer.TransferEvent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A classpath resolution running in the background. Maven reports every artifact it downloads to this listener, so
+ * the jars become visible while the resolution is still running; the classpath itself is known once it completes.
+ */
+public class ClasspathResolution extends AbstractTransferListener {
+
+    private final List<String> downloadedEntries = new CopyOnWriteArrayList<String>();
+    private final CountDownLatch completion = new CountDownLatch(1);
+    private volatile CompactClasspath classpath;
+    private volatile RuntimeException failure;
+
+    static ClasspathResolution completed(CompactClasspath classpath) {
+        ClasspathResolution resolution = new ClasspathResolution();
+        resolution.complete(classpath);
+        return resolution;
+    }
+
+    @Override
+    public void transferSucceeded(TransferEvent event) {
+        File file = event.getResource().getFile();
+        if (event.getRequestType() == TransferEvent.RequestType.GET && file != null && file.getName().endsWith(".jar")) {
+            downloadedEntries.add(file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Jars downloaded so far, in download order.
+     */
+    public List<String> getDownloadedEntries() {
+        return new ArrayList<String>(downloadedEntries);
+    }
+
+    public boolean isDone() {
+        return completion.getCount() == 0;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * @return the resolved classpath, or <code>null</code> while the resolution is running or when it failed
+     */
+    public List<String> getClasspathEntries() {
+        return classpath;
+    }
+
+    public String getFailure() {
+        return failure == null ? null : String.valueOf(failure.getMessage());
+    }
+
+    /**
+     * Waits for the resolution to complete.
+     */
+    CompactClasspath await() throws MavenClasspathExtractionException {
+        try {
+            completion.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MavenClasspathExtractionException("Interrupted while waiting for a running resolution", e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return classpath;
+    }
+
+    void complete(CompactClasspath classpath) {
+        this.classpath = classpath;
+        completion.countDown();
+    }
+
+    void fail(RuntimeException failure) {
+        this.failure = failure;
+        completion.countDown();
+    }
+}
@@ -0,0 +1,40 @@
+package fitnesse.wikitext.widgets;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only classpath backed by node ids from a shared {@link PathSegmentTable}. Paths are only turned back
+ * into strings when an element is requested. Carries the {@link ClasspathFingerprint#entriesDigest entries digest}
+ * computed when the classpath was resolved.
+ */
+public class CompactClasspath extends AbstractList<String> implements RandomAccess {
+
+    private final PathSegmentTable segmentTable;
+    private final int[] entries;
+    private final String entriesDigest;
+
+    public CompactClasspath(PathSegmentTable segmentTable, List<String> classpathEntries, String entriesDigest) {
+        this.segmentTable = segmentTable;
+        this.entriesDigest = entriesDigest;
+        this.entries = new int[classpathEntries.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = segmentTable.encode(classpathEntries.get(i));
+        }
+    }
+
+    @Override
+    public String get(int index) {
+        return segmentTable.decode(entries[index]);
+    }
+
+    @Override
+    public int size() {
+        return entries.length;
+    }
+
+    public String getEntriesDigest() {
+        return entriesDigest;
+    }
+}
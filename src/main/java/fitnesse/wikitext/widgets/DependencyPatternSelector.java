@@ -0,0 +1,132 @@
+package fitnesse.wikitext.widgets;
+
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.collection.DependencyCollectionContext;
+import org.sonatype.aether.collection.DependencySelector;
+import org.sonatype.aether.graph.Dependency;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects dependencies by <code>groupId:artifactId[:type[:classifier]]</code> patterns, where each part may use
+ * <code>*</code> as wildcard and omitted parts match anything. A dependency is left out if it matches an exclude
+ * pattern, or if include patterns are given and it matches none of them. Empty parts, as in
+ * <code>com.acme:</code>, are rejected rather than read as matching anything.
+ * <p/>
+ * Being a {@link DependencySelector}, it is applied while the dependency graph is collected: a dependency that is
+ * left out is never resolved, and neither are its own dependencies.
+ */
+public class DependencyPatternSelector implements DependencySelector {
+
+    private final List<String> includes;
+    private final List<String> excludes;
+
+    public DependencyPatternSelector(List<String> includes, List<String> excludes) {
+        checkPatterns(includes);
+        checkPatterns(excludes);
+        this.includes = Collections.unmodifiableList(new ArrayList<String>(includes));
+        this.excludes = Collections.unmodifiableList(new ArrayList<String>(excludes));
+    }
+
+    private static void checkPatterns(List<String> patterns) {
+        for (String pattern : patterns) {
+            String[] parts = pattern.split(":", -1);
+            if (parts.length > 4 || Arrays.asList(parts).contains("")) {
+                throw new IllegalArgumentException("Malformed dependency pattern '" + pattern
+                        + "', expected groupId:artifactId[:type[:classifier]] without empty parts");
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    public boolean selectDependency(Dependency dependency) {
+        Artifact artifact = dependency.getArtifact();
+        for (String exclude : excludes) {
+            if (matches(exclude, artifact)) {
+                return false;
+            }
+        }
+        if (includes.isEmpty()) {
+            return true;
+        }
+        for (String include : includes) {
+            if (matches(include, artifact)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public DependencySelector deriveChildSelector(DependencyCollectionContext context) {
+        return this;
+    }
+
+    static boolean matches(String pattern, Artifact artifact) {
+        String[] parts = pattern.split(":", -1);
+        String[] values = {artifact.getGroupId(), artifact.getArtifactId(),
+                artifact.getProperty("type", artifact.getExtension()), artifact.getClassifier()};
+        if (parts.length > values.length) {
+            return false;
+        }
+        for (int i = 0; i < parts.length; i++) {
+            if (!matchesWildcard(parts[i], values[i] == null ? "" : values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesWildcard(String pattern, String value) {
+        int star = pattern.indexOf('*');
+        if (star < 0) {
+            return pattern.equals(value);
+        }
+        String prefix = pattern.substring(0, star);
+        if (!value.startsWith(prefix)) {
+            return false;
+        }
+        String rest = pattern.substring(star + 1);
+        for (int i = prefix.length(); i <= value.length(); i++) {
+            if (matchesWildcard(rest, value.substring(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DependencyPatternSelector that = (DependencyPatternSelector) o;
+        return includes.equals(that.includes) && excludes.equals(that.excludes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * includes.hashCode() + excludes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "include=" + join(includes) + ";exclude=" + join(excludes);
+    }
+
+    private static String join(List<String> patterns) {
+        StringBuilder joined = new StringBuilder();
+        for (String pattern : patterns) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(pattern);
+        }
+        return joined.toString();
+    }
+}
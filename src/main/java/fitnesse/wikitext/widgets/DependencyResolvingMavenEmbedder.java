@@ -36,13 +36,17 @@ import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.Os;
 import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.collection.DependencySelector;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.graph.selector.AndDependencySelector;
 
 import java.io.*;
 import java.util.*;
 
 /**
  * Copied from Hudson's Maven Embedded which hides most of this behind private methods, making it impossible to change
- * it's behavior. Only change is the addition of buildProject which builds the project using dependency resolution.
+ * it's behavior. Only change is the addition of buildProject which builds the project using dependency resolution,
+ * and the option to run on a container shared by several embedders.
  */
 public class DependencyResolvingMavenEmbedder {
     public static final String userHome = System.getProperty("user.home");
@@ -55,20 +59,35 @@ public class DependencyResolvingMavenEmbedder {
     private final MavenRequest mavenRequest;
     private MavenExecutionRequest mavenExecutionRequest;
     private final MavenSession mavenSession;
+    private DependencySelector dependencySelector;
+    private final boolean importEnvironment;
 
     public DependencyResolvingMavenEmbedder(File mavenHome, MavenRequest mavenRequest) throws MavenEmbedderException {
-        this(mavenHome, mavenRequest, MavenEmbedderUtils.buildPlexusContainer(mavenHome, mavenRequest));
+        this(mavenHome, mavenRequest, MavenEmbedderUtils.buildPlexusContainer(mavenHome, mavenRequest), true);
     }
 
     public DependencyResolvingMavenEmbedder(ClassLoader mavenClassLoader, ClassLoader parent, MavenRequest mavenRequest) throws MavenEmbedderException {
-        this(null, mavenRequest, MavenEmbedderUtils.buildPlexusContainer(mavenClassLoader, parent, mavenRequest));
+        this(null, mavenRequest, MavenEmbedderUtils.buildPlexusContainer(mavenClassLoader, parent, mavenRequest), true);
     }
 
-    private DependencyResolvingMavenEmbedder(File mavenHome, MavenRequest mavenRequest, PlexusContainer plexusContainer)
-            throws MavenEmbedderException {
+    public DependencyResolvingMavenEmbedder(PlexusContainer plexusContainer, MavenRequest mavenRequest) throws MavenEmbedderException {
+        this(null, mavenRequest, plexusContainer, true);
+    }
+
+    /**
+     * @param importEnvironment whether environment variables are passed to Maven as <code>env.*</code> properties
+     */
+    public DependencyResolvingMavenEmbedder(PlexusContainer plexusContainer, MavenRequest mavenRequest,
+                                            boolean importEnvironment) throws MavenEmbedderException {
+        this(null, mavenRequest, plexusContainer, importEnvironment);
+    }
+
+    private DependencyResolvingMavenEmbedder(File mavenHome, MavenRequest mavenRequest, PlexusContainer plexusContainer,
+                                             boolean importEnvironment) throws MavenEmbedderException {
         this.mavenHome = mavenHome;
         this.mavenRequest = mavenRequest;
         this.plexusContainer = plexusContainer;
+        this.importEnvironment = importEnvironment;
 
         try {
             this.buildMavenExecutionRequest();
@@ -115,7 +134,7 @@ public class DependencyResolvingMavenEmbedder {
         ArtifactRepository localRepository = getLocalRepository();
         this.mavenExecutionRequest.setLocalRepository(localRepository);
         this.mavenExecutionRequest.setLocalRepositoryPath(localRepository.getBasedir());
-        this.mavenExecutionRequest.setOffline(this.mavenExecutionRequest.isOffline());
+        this.mavenExecutionRequest.setOffline(this.mavenExecutionRequest.isOffline() || this.mavenRequest.isOffline());
 
         this.mavenExecutionRequest.setUpdateSnapshots(this.mavenRequest.isUpdateSnapshots());
 
@@ -130,7 +149,9 @@ public class DependencyResolvingMavenEmbedder {
         if (this.mavenRequest.getSystemProperties() != null) {
             this.mavenExecutionRequest.getSystemProperties().putAll(this.mavenRequest.getSystemProperties());
         }
-        this.mavenExecutionRequest.getSystemProperties().putAll(getEnvVars());
+        if (importEnvironment) {
+            this.mavenExecutionRequest.getSystemProperties().putAll(getEnvVars());
+        }
 
         if (this.mavenHome != null) {
             this.mavenExecutionRequest.getSystemProperties().put("maven.home", this.mavenHome.getAbsolutePath());
@@ -193,7 +214,9 @@ public class DependencyResolvingMavenEmbedder {
         settingsBuildingRequest.setUserProperties(this.mavenRequest.getUserProperties());
         settingsBuildingRequest.getSystemProperties().putAll(System.getProperties());
         settingsBuildingRequest.getSystemProperties().putAll(this.mavenRequest.getSystemProperties());
-        settingsBuildingRequest.getSystemProperties().putAll(getEnvVars());
+        if (importEnvironment) {
+            settingsBuildingRequest.getSystemProperties().putAll(getEnvVars());
+        }
 
         try {
             return lookup(SettingsBuilder.class).build(settingsBuildingRequest).getEffectiveSettings();
@@ -337,7 +360,20 @@ public class DependencyResolvingMavenEmbedder {
 
     private RepositorySystemSession buildRepositorySystemSession() throws ComponentLookupException {
         DefaultMaven defaultMaven = (DefaultMaven) plexusContainer.lookup(Maven.class);
-        return defaultMaven.newRepositorySession(mavenExecutionRequest);
+        RepositorySystemSession session = defaultMaven.newRepositorySession(mavenExecutionRequest);
+        if (dependencySelector == null) {
+            return session;
+        }
+        return new DefaultRepositorySystemSession(session).setDependencySelector(
+                AndDependencySelector.newInstance(session.getDependencySelector(), dependencySelector));
+    }
+
+    /**
+     * Additional selector applied while collecting dependencies, on top of Maven's own scope, optional and
+     * exclusion handling.
+     */
+    public void setDependencySelector(DependencySelector dependencySelector) {
+        this.dependencySelector = dependencySelector;
     }
 
     public List<MavenProject> collectProjects(File basedir, String[] includes, String[] excludes)
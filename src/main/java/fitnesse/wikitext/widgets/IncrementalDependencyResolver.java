@@ -0,0 +1,432 @@
+package fitnesse.wikitext.widgets;
+
+import org.apache.maven.RepositoryUtils;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.project.MavenProject;
+import org.sonatype.aether.RepositoryException;
+import org.sonatype.aether.RepositorySystem;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.artifact.ArtifactTypeRegistry;
+import org.sonatype.aether.collection.CollectRequest;
+import org.sonatype.aether.collection.DependencyGraphTransformationContext;
+import org.sonatype.aether.collection.DependencyGraphTransformer;
+import org.sonatype.aether.graph.DependencyNode;
+import org.sonatype.aether.graph.DependencyVisitor;
+import org.sonatype.aether.repository.LocalRepositoryManager;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.resolution.ArtifactResolutionException;
+import org.sonatype.aether.util.DefaultRepositoryCache;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.version.Version;
+import org.sonatype.aether.version.VersionConstraint;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Resolves the dependencies of a Maven project the way Maven's project builder does, but keeps the collected
+ * dependency graph of the {@link #DEFAULT_MAX_GRAPHS most recently resolved} projects around. When the pom
+ * changes, only the dependency declarations that changed, or whose subtree contains an artifact with a changed
+ * managed version, are collected again. The subtrees of all other declarations are reused, and the combined graph
+ * goes through Maven's conflict resolution just like a freshly collected one. Declarations whose subtree contains a
+ * SNAPSHOT or a version range are always collected again, as they may resolve differently without any change to the
+ * pom.
+ * <p/>
+ * Changes to the repositories or to managed scopes, optional flags and exclusions cause a full collection.
+ */
+public class IncrementalDependencyResolver {
+
+    public static final int DEFAULT_MAX_GRAPHS = 32;
+
+    private static final String PROJECT_CONTEXT = "project";
+
+    private final Map<String, DependencyGraph> graphs;
+
+    public IncrementalDependencyResolver() {
+        this(DEFAULT_MAX_GRAPHS);
+    }
+
+    /**
+     * @param maxGraphs the number of graphs to keep; the least recently resolved one is dropped beyond that
+     */
+    public IncrementalDependencyResolver(int maxGraphs) {
+        graphs = Collections.synchronizedMap(new LeastRecentlyUsed(maxGraphs));
+    }
+
+    /**
+     * Resolves the dependencies of <code>project</code>, which has been built without resolving them, and stores the
+     * resulting artifacts on the project.
+     *
+     * @param key identifies the graph to reuse; the same pom built with a different dependency selector needs a
+     *            different key
+     * @return the number of dependency declarations that had to be collected
+     */
+    public int resolve(String key, MavenProject project, RepositorySystemSession session,
+                       RepositorySystem repositorySystem) throws RepositoryException {
+        ArtifactTypeRegistry artifactTypes = session.getArtifactTypeRegistry();
+        List<RemoteRepository> repositories = project.getRemoteProjectRepositories();
+
+        List<org.sonatype.aether.graph.Dependency> managedDependencies =
+                new ArrayList<org.sonatype.aether.graph.Dependency>();
+        Map<String, Dependency> managed = new HashMap<String, Dependency>();
+        if (project.getDependencyManagement() != null) {
+            for (Dependency dependency : project.getDependencyManagement().getDependencies()) {
+                managedDependencies.add(RepositoryUtils.toDependency(dependency, artifactTypes));
+                managed.put(dependency.getManagementKey(), dependency);
+            }
+        }
+
+        DependencyGraph previous = graphs.get(key);
+        Set<String> changedManagedArtifacts = null;
+        if (previous != null && previous.repositories.equals(repositories)) {
+            changedManagedArtifacts = changedManagedVersions(previous.managed, managed);
+        }
+
+        // collect without Maven's graph transformation, so the stored subtrees stay untouched and reusable
+        DefaultRepositorySystemSession collectSession = new DefaultRepositorySystemSession(session);
+        collectSession.setDependencyGraphTransformer(null);
+        if (collectSession.getCache() == null) {
+            collectSession.setCache(new DefaultRepositoryCache());
+        }
+
+        List<String> declarations = new ArrayList<String>();
+        Map<String, List<DependencyNode>> subtrees = new HashMap<String, List<DependencyNode>>();
+        int collected = 0;
+        for (Dependency dependency : project.getDependencies()) {
+            String declaration = describe(dependency);
+            declarations.add(declaration);
+            if (subtrees.containsKey(declaration)) {
+                continue;
+            }
+            List<DependencyNode> subtree = changedManagedArtifacts == null ? null : previous.subtrees.get(declaration);
+            if (subtree == null || mustCollectAgain(subtree, changedManagedArtifacts)) {
+                CollectRequest collectRequest = new CollectRequest();
+                collectRequest.setRequestContext(PROJECT_CONTEXT);
+                collectRequest.setRepositories(repositories);
+                collectRequest.addDependency(RepositoryUtils.toDependency(dependency, artifactTypes));
+                collectRequest.setManagedDependencies(managedDependencies);
+                subtree = repositorySystem.collectDependencies(collectSession, collectRequest).getRoot().getChildren();
+                collected++;
+            }
+            subtrees.put(declaration, subtree);
+        }
+
+        Edge root = new Edge(null, PROJECT_CONTEXT, new Target(Collections.<Artifact>emptyList(), repositories));
+        Map<List<DependencyNode>, Target> copies = new IdentityHashMap<List<DependencyNode>, Target>();
+        for (String declaration : declarations) {
+            for (DependencyNode node : subtrees.get(declaration)) {
+                root.getChildren().add(copy(node, copies));
+            }
+        }
+
+        DependencyNode graph = root;
+        DependencyGraphTransformer transformer = session.getDependencyGraphTransformer();
+        if (transformer != null) {
+            graph = transformer.transformGraph(root, new TransformationContext(session));
+        }
+        try {
+            repositorySystem.resolveDependencies(session, graph, null);
+        } catch (ArtifactResolutionException e) {
+            // like Maven's project builder, point unresolved artifacts into the local repository below
+        }
+
+        graphs.put(key, new DependencyGraph(repositories, managed, subtrees));
+        setArtifacts(project, graph, session.getLocalRepositoryManager());
+        return collected;
+    }
+
+    /**
+     * Drops the graph stored for <code>key</code>, for instance after its resolution failed.
+     */
+    public void forget(String key) {
+        graphs.remove(key);
+    }
+
+    private static void setArtifacts(MavenProject project, DependencyNode graph, LocalRepositoryManager lrm) {
+        Set<org.apache.maven.artifact.Artifact> artifacts = new LinkedHashSet<org.apache.maven.artifact.Artifact>();
+        RepositoryUtils.toArtifacts(artifacts, graph.getChildren(),
+                Collections.singletonList(project.getArtifact().getId()), null);
+        for (org.apache.maven.artifact.Artifact artifact : artifacts) {
+            if (!artifact.isResolved()) {
+                String path = lrm.getPathForLocalArtifact(RepositoryUtils.toArtifact(artifact));
+                artifact.setFile(new File(lrm.getRepository().getBasedir(), path));
+            }
+        }
+        project.setResolvedArtifacts(artifacts);
+        project.setArtifacts(artifacts);
+    }
+
+    /**
+     * groupId:artifactId of every managed dependency whose version changed, or <code>null</code> when anything
+     * else about dependency management changed.
+     */
+    private static Set<String> changedManagedVersions(Map<String, Dependency> before, Map<String, Dependency> after) {
+        Set<String> managementKeys = new HashSet<String>(before.keySet());
+        managementKeys.addAll(after.keySet());
+
+        Set<String> changed = new HashSet<String>();
+        for (String managementKey : managementKeys) {
+            Dependency old = before.get(managementKey);
+            Dependency current = after.get(managementKey);
+            if (!describeManagement(old).equals(describeManagement(current))) {
+                return null;
+            }
+            String oldVersion = old == null ? null : old.getVersion();
+            String currentVersion = current == null ? null : current.getVersion();
+            if (oldVersion == null ? currentVersion != null : !oldVersion.equals(currentVersion)) {
+                Dependency dependency = current == null ? old : current;
+                changed.add(dependency.getGroupId() + ":" + dependency.getArtifactId());
+            }
+        }
+        return changed;
+    }
+
+    private static String describeManagement(Dependency dependency) {
+        if (dependency == null) {
+            return "null:false:[]";
+        }
+        return dependency.getScope() + ":" + dependency.isOptional() + ":" + describe(dependency.getExclusions());
+    }
+
+    private static String describe(Dependency dependency) {
+        return dependency.getManagementKey() + ":" + dependency.getVersion() + ":" + dependency.getScope() + ":"
+                + dependency.isOptional() + ":" + dependency.getSystemPath() + ":"
+                + describe(dependency.getExclusions());
+    }
+
+    private static String describe(List<Exclusion> exclusions) {
+        StringBuilder description = new StringBuilder("[");
+        for (Exclusion exclusion : exclusions) {
+            description.append(exclusion.getGroupId()).append(':').append(exclusion.getArtifactId()).append(',');
+        }
+        return description.append(']').toString();
+    }
+
+    /**
+     * Whether the subtree contains an artifact with a changed managed version, a SNAPSHOT or a version range.
+     */
+    private static boolean mustCollectAgain(List<DependencyNode> subtree, final Set<String> changedManagedArtifacts) {
+        final Set<DependencyNode> visited = Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>());
+        final boolean[] found = new boolean[1];
+        DependencyVisitor visitor = new DependencyVisitor() {
+            public boolean visitEnter(DependencyNode node) {
+                Artifact artifact = node.getDependency().getArtifact();
+                VersionConstraint versionConstraint = node.getVersionConstraint();
+                found[0] |= changedManagedArtifacts.contains(artifact.getGroupId() + ":" + artifact.getArtifactId())
+                        || artifact.isSnapshot()
+                        || versionConstraint != null && !versionConstraint.getRanges().isEmpty();
+                return !found[0] && visited.add(node);
+            }
+
+            public boolean visitLeave(DependencyNode node) {
+                return !found[0];
+            }
+        };
+        for (DependencyNode node : subtree) {
+            if (!node.accept(visitor)) {
+                break;
+            }
+        }
+        return found[0];
+    }
+
+    /**
+     * Copies a collected subtree, keeping the nodes the collector shared between several parents shared.
+     */
+    private static DependencyNode copy(DependencyNode node, Map<List<DependencyNode>, Target> copies) {
+        Target target = copies.get(node.getChildren());
+        if (target != null) {
+            return new Edge(node, target);
+        }
+        target = new Target(node.getAliases(), node.getRepositories());
+        copies.put(node.getChildren(), target);
+        for (DependencyNode child : node.getChildren()) {
+            target.children.add(copy(child, copies));
+        }
+        return new Edge(node, target);
+    }
+
+    private static class DependencyGraph {
+        private final List<RemoteRepository> repositories;
+        private final Map<String, Dependency> managed;
+        private final Map<String, List<DependencyNode>> subtrees;
+
+        private DependencyGraph(List<RemoteRepository> repositories, Map<String, Dependency> managed,
+                                Map<String, List<DependencyNode>> subtrees) {
+            this.repositories = repositories;
+            this.managed = managed;
+            this.subtrees = subtrees;
+        }
+    }
+
+    private static class LeastRecentlyUsed extends LinkedHashMap<String, DependencyGraph> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxGraphs;
+
+        private LeastRecentlyUsed(int maxGraphs) {
+            super(16, 0.75f, true);
+            this.maxGraphs = maxGraphs;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DependencyGraph> eldest) {
+            return size() > maxGraphs;
+        }
+    }
+
+    /**
+     * The children of a node, which like in Aether's own graph can be reached through several edges.
+     */
+    private static class Target {
+        private final List<DependencyNode> children = new ArrayList<DependencyNode>(0);
+        private final Collection<Artifact> aliases;
+        private final List<RemoteRepository> repositories;
+
+        private Target(Collection<Artifact> aliases, List<RemoteRepository> repositories) {
+            this.aliases = aliases;
+            this.repositories = repositories;
+        }
+    }
+
+    private static class Edge implements DependencyNode {
+        private final Target target;
+        private org.sonatype.aether.graph.Dependency dependency;
+        private String context;
+        private final String premanagedScope;
+        private final String premanagedVersion;
+        private final List<Artifact> relocations;
+        private final VersionConstraint versionConstraint;
+        private final Version version;
+        private final Map<Object, Object> data = new HashMap<Object, Object>();
+
+        private Edge(org.sonatype.aether.graph.Dependency dependency, String context, Target target) {
+            this.target = target;
+            this.dependency = dependency;
+            this.context = context;
+            this.premanagedScope = null;
+            this.premanagedVersion = null;
+            this.relocations = Collections.emptyList();
+            this.versionConstraint = null;
+            this.version = null;
+        }
+
+        private Edge(DependencyNode node, Target target) {
+            this.target = target;
+            this.dependency = node.getDependency();
+            this.context = node.getRequestContext();
+            this.premanagedScope = node.getPremanagedScope();
+            this.premanagedVersion = node.getPremanagedVersion();
+            this.relocations = node.getRelocations();
+            this.versionConstraint = node.getVersionConstraint();
+            this.version = node.getVersion();
+            this.data.putAll(node.getData());
+        }
+
+        public List<DependencyNode> getChildren() {
+            return target.children;
+        }
+
+        public org.sonatype.aether.graph.Dependency getDependency() {
+            return dependency;
+        }
+
+        public void setArtifact(Artifact artifact) {
+            dependency = dependency.setArtifact(artifact);
+        }
+
+        public List<Artifact> getRelocations() {
+            return relocations;
+        }
+
+        public Collection<Artifact> getAliases() {
+            return target.aliases;
+        }
+
+        public VersionConstraint getVersionConstraint() {
+            return versionConstraint;
+        }
+
+        public Version getVersion() {
+            return version;
+        }
+
+        public void setScope(String scope) {
+            dependency = dependency.setScope(scope);
+        }
+
+        public String getPremanagedVersion() {
+            return premanagedVersion;
+        }
+
+        public String getPremanagedScope() {
+            return premanagedScope;
+        }
+
+        public List<RemoteRepository> getRepositories() {
+            return target.repositories;
+        }
+
+        public String getRequestContext() {
+            return context;
+        }
+
+        public void setRequestContext(String context) {
+            this.context = context;
+        }
+
+        public Map<Object, Object> getData() {
+            return data;
+        }
+
+        public void setData(Object key, Object value) {
+            if (key == null) {
+                throw new IllegalArgumentException("key must not be null");
+            }
+            if (value == null) {
+                data.remove(key);
+            } else {
+                data.put(key, value);
+            }
+        }
+
+        public boolean accept(DependencyVisitor visitor) {
+            if (visitor.visitEnter(this)) {
+                for (DependencyNode child : getChildren()) {
+                    if (!child.accept(visitor)) {
+                        break;
+                    }
+                }
+            }
+            return visitor.visitLeave(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(dependency);
+        }
+    }
+
+    private static class TransformationContext implements DependencyGraphTransformationContext {
+        private final RepositorySystemSession session;
+        private final Map<Object, Object> values = new HashMap<Object, Object>();
+
+        private TransformationContext(RepositorySystemSession session) {
+            this.session = session;
+        }
+
+        public RepositorySystemSession getSession() {
+            return session;
+        }
+
+        public Object get(Object key) {
+            return values.get(key);
+        }
+
+        public Object put(Object key, Object value) {
+            return values.put(key, value);
+        }
+    }
+}
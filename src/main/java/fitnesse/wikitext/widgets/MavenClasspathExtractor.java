@@ -1,15 +1,30 @@
 package fitnesse.wikitext.widgets;
 
 import hudson.maven.MavenEmbedderException;
+import hudson.maven.MavenEmbedderUtils;
 import hudson.maven.MavenRequest;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.cli.MavenCli;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuildingException;
-import org.apache.maven.project.ProjectBuildingResult;
+import org.codehaus.plexus.PlexusContainer;
 import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.sonatype.aether.RepositoryException;
+import org.sonatype.aether.RepositorySystem;
+import org.sonatype.aether.transfer.TransferListener;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
 
 /**
  * Utiity class to extract classpath elements from Maven projects. Heavily based on code copied from Jenkin's Maven
@@ -17,28 +32,212 @@ import java.util.List;
  */
 public class MavenClasspathExtractor {
 
+    private static final Logger LOG = Logger.getLogger(MavenClasspathExtractor.class.getName());
+
 	public final static String DEFAULT_SCOPE = "test";
+
+    /**
+     * System property pointing to a classpath cache file, as written by {@link MavenClasspathPreResolver}.
+     */
+    public final static String CACHE_FILE_PROPERTY = "maven.classpath.cache";
+    public final static String DEFAULT_CACHE_FILE = "maven-classpath.cache";
 	
     private File userSettingsFile;
     private File globalSettingsFile;
 
+    private static final ExecutorService BACKGROUND = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "maven-classpath-resolution");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ClasspathCache classpathCache = new ClasspathCache();
+    /**
+     * Resolutions running in the background, so a page reload or the progress responder finds the resolution the
+     * first page view started. Other extractors may be configured differently, so they never attach to these.
+     */
+    private final ConcurrentMap<String, ClasspathResolution> resolutions =
+            new ConcurrentHashMap<String, ClasspathResolution>();
+    private final ClasspathFingerprint classpathFingerprint = new ClasspathFingerprint();
+    private final ConcurrentMap<ResolutionPreset, RequestTemplate> requestTemplates =
+            new ConcurrentHashMap<ResolutionPreset, RequestTemplate>();
+    private final IncrementalDependencyResolver dependencyResolver = new IncrementalDependencyResolver();
+
+    private volatile PlexusContainer plexusContainer;
+
+    public MavenClasspathExtractor() {
+        File cacheFile = new File(System.getProperty(CACHE_FILE_PROPERTY, DEFAULT_CACHE_FILE));
+        if (cacheFile.isFile()) {
+            try {
+                loadClasspathCache(cacheFile);
+            } catch (IOException e) {
+                LOG.warning("Skipped classpath cache file " + cacheFile.getAbsolutePath() + ", classpaths will be "
+                        + "resolved on demand: " + e.getMessage());
+            }
+        }
+    }
+
 	public List<String> extractClasspathEntries(File pomFile) {
 		return extractClasspathEntries(pomFile, DEFAULT_SCOPE);
 	}
 
     public List<String> extractClasspathEntries(File pomFile, String scope) throws MavenClasspathExtractionException {
+        return extractClasspathEntries(pomFile, scope, Collections.<String>emptyList(), Collections.<String>emptyList(),
+                ResolutionPreset.DEFAULT);
+    }
 
-        try {
-            MavenRequest mavenRequest = mavenConfiguration();
-            mavenRequest.setResolveDependencies(true);
-            mavenRequest.setBaseDirectory(pomFile.getParent());
-            mavenRequest.setPom(pomFile.getAbsolutePath());
+    /**
+     * Extracts the classpath using the Maven configuration of a {@link ResolutionPreset}, leaving out dependencies
+     * (and everything they depend on) as described in {@link DependencyPatternSelector}.
+     */
+    public List<String> extractClasspathEntries(File pomFile, String scope, List<String> includes, List<String> excludes,
+                                                ResolutionPreset preset) throws MavenClasspathExtractionException {
+        return extractClasspath(pomFile, scope, includes, excludes, preset);
+    }
+
+    /**
+     * {@link ClasspathFingerprint} of the classpath
+     * {@link #extractClasspathEntries(File, String, List, List, ResolutionPreset)} returns. The entries are hashed once
+     * when the classpath is resolved, but the sizes and modification times of its jars and directories are looked up
+     * on every call. Equal fingerprints mean the same entries in the same order, with unchanged jars and directories.
+     */
+    public String extractClasspathFingerprint(File pomFile, String scope, List<String> includes, List<String> excludes,
+                                              ResolutionPreset preset) throws MavenClasspathExtractionException {
+        CompactClasspath classpath = extractClasspath(pomFile, scope, includes, excludes, preset);
+        return classpathFingerprint.of(classpath.getEntriesDigest(), classpath);
+    }
+
+    /**
+     * Starts resolving the classpath on a background thread and returns right away. While that resolution is running,
+     * calls for the same pom, scope, patterns and preset return it instead of starting another one, and synchronous
+     * extraction waits for it. A failed resolution is handed out once more, so its failure can be shown, after which
+     * the next call starts over.
+     */
+    public ClasspathResolution resolveInBackground(final File pomFile, final String scope, List<String> includes,
+                                                   List<String> excludes, final ResolutionPreset preset) {
+        final DependencyPatternSelector selector = new DependencyPatternSelector(includes, excludes);
+        final String variant = variant(scope, selector, preset);
+        CompactClasspath cachedClasspath = classpathCache.get(pomFile, variant, configurationStamp());
+        if (cachedClasspath != null) {
+            return ClasspathResolution.completed(cachedClasspath);
+        }
 
-            DependencyResolvingMavenEmbedder dependencyResolvingMavenEmbedder =
-                    new DependencyResolvingMavenEmbedder(getClass().getClassLoader(), mavenRequest);
+        final String key = resolutionKey(pomFile, variant);
+        final ClasspathResolution resolution = new ClasspathResolution();
+        ClasspathResolution running = resolutions.putIfAbsent(key, resolution);
+        if (running != null) {
+            if (running.isFailed()) {
+                resolutions.remove(key, running);
+            }
+            return running;
+        }
+
+        BACKGROUND.execute(new Runnable() {
+            public void run() {
+                try {
+                    CompactClasspath classpath = resolve(pomFile, scope, selector, preset, variant, resolution);
+                    // the classpath is cached by now, so nobody needs to attach anymore
+                    resolutions.remove(key, resolution);
+                    resolution.complete(classpath);
+                } catch (RuntimeException e) {
+                    resolution.fail(e);
+                }
+            }
+        });
+        return resolution;
+    }
+
+    /**
+     * @return the resolution {@link #resolveInBackground} started for this pom, scope, patterns and preset, or
+     *         <code>null</code> when none is running (anymore)
+     */
+    public ClasspathResolution findResolution(File pomFile, String scope, List<String> includes,
+                                              List<String> excludes, ResolutionPreset preset) {
+        String variant = variant(scope, new DependencyPatternSelector(includes, excludes), preset);
+        return resolutions.get(resolutionKey(pomFile, variant));
+    }
 
-            ProjectBuildingResult projectBuildingResult = dependencyResolvingMavenEmbedder.buildProject(pomFile);
-            return getClasspathForScope(projectBuildingResult, scope);
+    private CompactClasspath extractClasspath(File pomFile, String scope, List<String> includes, List<String> excludes,
+                                              ResolutionPreset preset) {
+        DependencyPatternSelector selector = new DependencyPatternSelector(includes, excludes);
+        String variant = variant(scope, selector, preset);
+
+        CompactClasspath cachedClasspath = classpathCache.get(pomFile, variant, configurationStamp());
+        if (cachedClasspath != null) {
+            return cachedClasspath;
+        }
+        String key = resolutionKey(pomFile, variant);
+        ClasspathResolution running = resolutions.get(key);
+        if (running != null && !running.isFailed()) {
+            return running.await();
+        }
+        CompactClasspath classpath = resolve(pomFile, scope, selector, preset, variant, null);
+        if (running != null) {
+            // the background failure is outdated, so progress is no longer reported as failed
+            resolutions.remove(key, running);
+        }
+        return classpath;
+    }
+
+    private CompactClasspath resolve(File pomFile, String scope, DependencyPatternSelector selector,
+                                     ResolutionPreset preset, String variant, TransferListener transferListener) {
+        // stamped before resolving, so settings changed meanwhile are read again by the next resolution
+        String configuration = configurationStamp();
+        List<File> parentPomFiles = new ArrayList<File>();
+        List<String> classpathEntries = resolveClasspathEntries(pomFile, scope, selector, preset, transferListener,
+                parentPomFiles);
+        return classpathCache.put(pomFile, variant, configuration, parentPomFiles, classpathEntries,
+                ClasspathFingerprint.entriesDigest(classpathEntries));
+    }
+
+    private static String variant(String scope, DependencyPatternSelector selector, ResolutionPreset preset) {
+        String variant = selector.isEmpty() ? scope : scope + ";" + selector;
+        return preset == ResolutionPreset.DEFAULT ? variant : variant + "#" + preset.getName();
+    }
+
+    private static String resolutionKey(File pomFile, String variant) {
+        return pomFile.getAbsolutePath() + "@" + variant;
+    }
+
+    public void loadClasspathCache(File cacheFile) throws IOException {
+        classpathCache.load(cacheFile);
+    }
+
+    public void saveClasspathCache(File cacheFile) throws IOException {
+        classpathCache.save(cacheFile);
+    }
+
+    /**
+     * Builds the project without resolving its dependencies and lets the {@link IncrementalDependencyResolver} reuse
+     * what it can from the previous resolution of the same pom. Falls back to Maven's own resolution when collecting
+     * fails, so broken poms are reported the same way.
+     *
+     * @param parentPomFiles receives the pom files of the parent projects, as far as they are files
+     */
+    private List<String> resolveClasspathEntries(File pomFile, String scope, DependencyPatternSelector selector,
+                                                 ResolutionPreset preset, TransferListener transferListener,
+                                                 List<File> parentPomFiles)
+            throws MavenClasspathExtractionException {
+        String graphKey = pomFile.getAbsolutePath() + ";" + selector + "#" + preset.getName();
+        try {
+            DependencyResolvingMavenEmbedder dependencyResolvingMavenEmbedder = mavenEmbedder(pomFile, selector, preset, transferListener, false);
+            MavenProject project = dependencyResolvingMavenEmbedder.buildProject(pomFile).getProject();
+            try {
+                dependencyResolver.resolve(graphKey, project,
+                        project.getProjectBuildingRequest().getRepositorySession(),
+                        dependencyResolvingMavenEmbedder.lookup(RepositorySystem.class));
+            } catch (RepositoryException e) {
+                dependencyResolver.forget(graphKey);
+                project = mavenEmbedder(pomFile, selector, preset, transferListener, true).buildProject(pomFile).getProject();
+            }
+            for (MavenProject parent = project.getParent(); parent != null; parent = parent.getParent()) {
+                if (parent.getFile() != null) {
+                    parentPomFiles.add(parent.getFile());
+                }
+            }
+            return getClasspathForScope(project, scope);
 
         } catch (MavenEmbedderException mee) {
             throw new MavenClasspathExtractionException(mee);
@@ -51,11 +250,28 @@ public class MavenClasspathExtractor {
         }
     }
 
-	private List<String> getClasspathForScope(
-			ProjectBuildingResult projectBuildingResult, String scope)
+    private DependencyResolvingMavenEmbedder mavenEmbedder(File pomFile, DependencyPatternSelector selector,
+                                                           ResolutionPreset preset, TransferListener transferListener,
+                                                           boolean resolveDependencies)
+            throws MavenEmbedderException, ComponentLookupException {
+        MavenRequest mavenRequest = newMavenRequest(preset);
+        mavenRequest.setResolveDependencies(resolveDependencies);
+        mavenRequest.setBaseDirectory(pomFile.getParent());
+        mavenRequest.setPom(pomFile.getAbsolutePath());
+        if (transferListener != null) {
+            mavenRequest.setTransferListener(transferListener);
+        }
+
+        DependencyResolvingMavenEmbedder dependencyResolvingMavenEmbedder =
+                new DependencyResolvingMavenEmbedder(plexusContainer(), mavenRequest, preset.importsEnvironment());
+        if (!selector.isEmpty()) {
+            dependencyResolvingMavenEmbedder.setDependencySelector(selector);
+        }
+        return dependencyResolvingMavenEmbedder;
+    }
+
+	private List<String> getClasspathForScope(MavenProject project, String scope)
 			throws DependencyResolutionRequiredException {
-		MavenProject project = projectBuildingResult.getProject();
-		
 		if ("compile".equalsIgnoreCase(scope)) {
 			return project.getCompileClasspathElements();
 		} else if ("runtime".equalsIgnoreCase(scope)) {
@@ -66,6 +282,69 @@ public class MavenClasspathExtractor {
 	}
 
     
+    /**
+     * Copies the template of the preset, which is configured again once the settings files changed.
+     */
+    private MavenRequest newMavenRequest(ResolutionPreset preset) throws MavenEmbedderException, ComponentLookupException {
+        String settingsStamp = settingsStamp();
+        RequestTemplate template = requestTemplates.get(preset);
+        if (template == null || !template.settingsStamp.equals(settingsStamp)) {
+            MavenRequest mavenRequest = mavenConfiguration();
+            preset.configure(mavenRequest);
+            template = new RequestTemplate(settingsStamp, mavenRequest);
+            requestTemplates.put(preset, template);
+        }
+        return copy(template.mavenRequest);
+    }
+
+    /**
+     * Identifies the settings files {@link #mavenConfiguration()} reads, as they are now.
+     */
+    private String settingsStamp() {
+        return stamp(userSettingsFile, MavenCli.DEFAULT_USER_SETTINGS_FILE) + ";"
+                + stamp(globalSettingsFile, MavenCli.DEFAULT_GLOBAL_SETTINGS_FILE);
+    }
+
+    /**
+     * Identifies the configuration classpaths are resolved with: the settings files and the local repository
+     * override of {@link #getLocalRepository(String)}.
+     */
+    private String configurationStamp() {
+        return settingsStamp() + ";" + getLocalRepository(null);
+    }
+
+    private static String stamp(File settingsFile, File defaultSettingsFile) {
+        File file = settingsFile != null && settingsFile.exists() ? settingsFile : defaultSettingsFile;
+        return file.getAbsolutePath() + "@" + file.lastModified();
+    }
+
+    private static MavenRequest copy(MavenRequest template) {
+        MavenRequest mavenRequest = new MavenRequest();
+        mavenRequest.setGlobalSettingsFile(template.getGlobalSettingsFile());
+        mavenRequest.setUserSettingsFile(template.getUserSettingsFile());
+        mavenRequest.setLocalRepositoryPath(template.getLocalRepositoryPath());
+        mavenRequest.setOffline(template.isOffline());
+        mavenRequest.setUpdateSnapshots(template.isUpdateSnapshots());
+        mavenRequest.setNoSnapshotUpdates(template.isNoSnapshotUpdates());
+        mavenRequest.setCacheNotFound(template.isCacheNotFound());
+        mavenRequest.setCacheTransferError(template.isCacheTransferError());
+        mavenRequest.setGlobalChecksumPolicy(template.getGlobalChecksumPolicy());
+        mavenRequest.setInteractive(template.isInteractive());
+        mavenRequest.setLoggingLevel(template.getLoggingLevel());
+        mavenRequest.setProcessPlugins(template.isProcessPlugins());
+        mavenRequest.setValidationLevel(template.getValidationLevel());
+        if (template.getProfiles() != null) {
+            mavenRequest.setProfiles(new ArrayList<String>(template.getProfiles()));
+        }
+        if (template.getSystemProperties() != null) {
+            mavenRequest.setSystemProperties((Properties) template.getSystemProperties().clone());
+        }
+        if (template.getUserProperties() != null) {
+            mavenRequest.setUserProperties((Properties) template.getUserProperties().clone());
+        }
+        return mavenRequest;
+    }
+
     // protected for test purposes
     protected MavenRequest mavenConfiguration() throws MavenEmbedderException, ComponentLookupException {
         MavenRequest mavenRequest = new MavenRequest();
@@ -77,12 +356,29 @@ public class MavenClasspathExtractor {
             mavenRequest.setGlobalSettingsFile(globalSettingsFile.getAbsolutePath());
         }
 
-        DependencyResolvingMavenEmbedder mavenEmbedder = new DependencyResolvingMavenEmbedder(MavenClasspathExtractor.class.getClassLoader(), mavenRequest);
+        DependencyResolvingMavenEmbedder mavenEmbedder = new DependencyResolvingMavenEmbedder(plexusContainer(), mavenRequest);
         mavenEmbedder.getMavenRequest().setLocalRepositoryPath(getLocalRepository(mavenEmbedder.getSettings().getLocalRepository()));
 
         return mavenEmbedder.getMavenRequest();
     }
 
+    /**
+     * The embedded Maven runtime is expensive to start, so it is built on first use and shared by all resolutions.
+     */
+    protected PlexusContainer plexusContainer() throws MavenEmbedderException {
+        PlexusContainer container = plexusContainer;
+        if (container == null) {
+            synchronized (this) {
+                if (plexusContainer == null) {
+                    plexusContainer = MavenEmbedderUtils.buildPlexusContainer(
+                            MavenClasspathExtractor.class.getClassLoader(), null, new MavenRequest());
+                }
+                container = plexusContainer;
+            }
+        }
+        return container;
+    }
+
     /*
     * can be overridden for test purposes.
     */
@@ -101,4 +397,13 @@ public class MavenClasspathExtractor {
         this.globalSettingsFile = globalSettingsFile;
     }
 
+    private static class RequestTemplate {
+        private final String settingsStamp;
+        private final MavenRequest mavenRequest;
+
+        private RequestTemplate(String settingsStamp, MavenRequest mavenRequest) {
+            this.settingsStamp = settingsStamp;
+            this.mavenRequest = mavenRequest;
+        }
+    }
 }
@@ -0,0 +1,156 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Command line entry point which resolves the classpath of every <code>!pomFile</code> directive found in a
+ * FitNesseRoot up front, so a freshly started FitNesse instance can pick the results up from the classpath cache
+ * file instead of resolving page by page.
+ * <p/>
+ * Relative pom paths are resolved against the working directory, so run it from the directory FitNesse is
+ * started in.
+ */
+public class MavenClasspathPreResolver {
+
+    private static final Pattern POM_FILE_DIRECTIVE = Pattern.compile("(?:^|\\|)\\s*!pomFile\\s+([^\\s|]+)");
+
+    private final MavenClasspathExtractor mavenClasspathExtractor;
+    private final int threads;
+
+    public MavenClasspathPreResolver(MavenClasspathExtractor mavenClasspathExtractor, int threads) {
+        this.mavenClasspathExtractor = mavenClasspathExtractor;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File root = new File("FitNesseRoot");
+        File cacheFile = new File(MavenClasspathExtractor.DEFAULT_CACHE_FILE);
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-root".equals(args[i]) && i + 1 < args.length) {
+                root = new File(args[++i]);
+            } else if ("-cache".equals(args[i]) && i + 1 < args.length) {
+                cacheFile = new File(args[++i]);
+            } else if ("-threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: java " + MavenClasspathPreResolver.class.getName()
+                        + " [-root FitNesseRoot] [-cache " + MavenClasspathExtractor.DEFAULT_CACHE_FILE + "] [-threads n]");
+                System.exit(2);
+            }
+        }
+
+        boolean resolvedAll = new MavenClasspathPreResolver(new MavenClasspathExtractor(), threads)
+                .preResolve(root, cacheFile, System.out);
+        System.exit(resolvedAll ? 0 : 1);
+    }
+
+    /**
+     * Resolves all directives below <code>root</code>, writes the cache file and prints a timing line per directive.
+     *
+     * @return whether every directive could be resolved
+     */
+    public boolean preResolve(File root, File cacheFile, PrintStream out) throws IOException, InterruptedException {
+        Set<String> directives = findPomFileDirectives(root);
+        out.println("Resolving " + directives.size() + " pom file(s) from " + root + " using " + threads + " thread(s)");
+
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        Map<String, Future<Result>> results = new LinkedHashMap<String, Future<Result>>();
+        try {
+            for (final String directive : directives) {
+                results.put(directive, executor.submit(new Callable<Result>() {
+                    public Result call() {
+                        return resolve(directive);
+                    }
+                }));
+            }
+
+            boolean resolvedAll = true;
+            for (Map.Entry<String, Future<Result>> result : results.entrySet()) {
+                Result r = get(result.getValue());
+                resolvedAll &= r.failure == null;
+                out.println(String.format("%8d ms  %s  %s", r.millis, result.getKey(),
+                        r.failure == null ? r.entries + " entries" : "FAILED: " + r.failure));
+            }
+
+            mavenClasspathExtractor.saveClasspathCache(cacheFile);
+            out.println(String.format("%8d ms  total, cache written to %s", System.currentTimeMillis() - start,
+                    cacheFile.getAbsolutePath()));
+            return resolvedAll;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Collects the distinct <code>!pomFile</code> arguments (including <code>@scope</code> suffixes and patterns)
+     * of all pages below <code>root</code>.
+     */
+    public Set<String> findPomFileDirectives(File root) throws IOException {
+        Set<String> directives = new LinkedHashSet<String>();
+        collectPomFileDirectives(root, directives);
+        return directives;
+    }
+
+    private void collectPomFileDirectives(File dir, Set<String> directives) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectPomFileDirectives(file, directives);
+            } else if ("content.txt".equals(file.getName())) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        Matcher matcher = POM_FILE_DIRECTIVE.matcher(line);
+                        while (matcher.find()) {
+                            directives.add(matcher.group(1));
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    private Result resolve(String directive) {
+        long start = System.currentTimeMillis();
+        try {
+            List<String> entries = new PomFileDirective(directive).extractClasspathEntries(mavenClasspathExtractor);
+            return new Result(System.currentTimeMillis() - start, entries.size(), null);
+        } catch (RuntimeException e) {
+            return new Result(System.currentTimeMillis() - start, 0, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private Result get(Future<Result> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return new Result(0, 0, String.valueOf(e.getCause()));
+        }
+    }
+
+    private static class Result {
+        private final long millis;
+        private final int entries;
+        private final String failure;
+
+        private Result(long millis, int entries, String failure) {
+            this.millis = millis;
+            this.entries = entries;
+            this.failure = failure;
+        }
+    }
+}
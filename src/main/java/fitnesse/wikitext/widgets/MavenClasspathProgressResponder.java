@@ -0,0 +1,66 @@
+package fitnesse.wikitext.widgets;
+
+import fitnesse.FitNesseContext;
+import fitnesse.Responder;
+import fitnesse.http.Request;
+import fitnesse.http.Response;
+import fitnesse.http.SimpleResponse;
+
+/**
+ * Lightweight endpoint pages poll while a <code>!pomFile</code> classpath is resolved in the background. Register it
+ * in plugins.properties with <code>Responders = mavenClasspath:fitnesse.wikitext.widgets.MavenClasspathProgressResponder</code>.
+ * <p/>
+ * Answers <code>?responder=mavenClasspath&pomFile=...</code> with a plain text status line (<code>running</code>,
+ * <code>failed</code> or <code>done</code>) followed by the lines to show on the page.
+ */
+public class MavenClasspathProgressResponder implements Responder {
+
+    public static final String NAME = "mavenClasspath";
+    public static final String POM_FILE_INPUT = "pomFile";
+
+    private final MavenClasspathExtractor mavenClasspathExtractor;
+
+    public MavenClasspathProgressResponder() {
+        this(MavenClasspathSymbolType.sharedExtractor());
+    }
+
+    MavenClasspathProgressResponder(MavenClasspathExtractor mavenClasspathExtractor) {
+        this.mavenClasspathExtractor = mavenClasspathExtractor;
+    }
+
+    public Response makeResponse(FitNesseContext context, Request request) throws Exception {
+        SimpleResponse response = new SimpleResponse();
+        response.setContentType("text/plain");
+        response.setContent(progress((String) request.getInput(POM_FILE_INPUT)));
+        return response;
+    }
+
+    String progress(String argument) {
+        ClasspathResolution resolution = argument == null ? null : new PomFileDirective(argument)
+                .findResolution(mavenClasspathExtractor);
+        if (resolution == null || (resolution.isDone() && !resolution.isFailed())) {
+            return "done\n";
+        }
+        if (resolution.isFailed()) {
+            return "failed\n" + failedLine(argument, resolution) + "\n";
+        }
+
+        StringBuilder progress = new StringBuilder("running\n");
+        for (String entry : resolution.getDownloadedEntries()) {
+            progress.append(downloadedLine(entry)).append('\n');
+        }
+        return progress.append(runningLine(argument)).append('\n').toString();
+    }
+
+    static String downloadedLine(String entry) {
+        return "downloaded: " + entry;
+    }
+
+    static String runningLine(String argument) {
+        return "resolving classpath of " + argument + "...";
+    }
+
+    static String failedLine(String argument, ClasspathResolution resolution) {
+        return "resolving classpath of " + argument + " failed: " + resolution.getFailure();
+    }
+}
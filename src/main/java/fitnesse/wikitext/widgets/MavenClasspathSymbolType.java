@@ -4,7 +4,8 @@ import fitnesse.html.HtmlUtil;
 import fitnesse.wikitext.parser.*;
 import util.Maybe;
 
-import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.Collection;
 import java.util.List;
 
@@ -13,11 +14,59 @@ import java.util.List;
  */
 public class MavenClasspathSymbolType extends SymbolType implements Rule, Translation, PathsProvider {
 
+    /**
+     * Ends the argument at whitespace, the end of the line or the end of a table cell, without taking it, so the
+     * argument is read as it is written. Patterns contain colons, commas and CamelCase artifact ids, which the wiki
+     * parser would otherwise turn into symbols of their own.
+     */
+    private static final SymbolType ARGUMENT_END = new SymbolType("MavenClasspathArgumentEnd") {
+        @Override
+        public SymbolMatch makeMatch(ScanString input) {
+            char next = input.charAt(0);
+            return Character.isWhitespace(next) || next == '|' ? new SymbolMatch(this, input, 0) : SymbolMatch.noMatch;
+        }
+    };
+
+    /**
+     * System property which, when <code>true</code>, renders pages right away while classpaths are resolved in the
+     * background, see {@link MavenClasspathProgressResponder}.
+     */
+    public static final String PROGRESSIVE_PROPERTY = "maven.classpath.progressive";
+
+    private static final String POLL_SCRIPT = "(function () {\n"
+            + "  var poll = function () {\n"
+            + "    var request = new XMLHttpRequest();\n"
+            + "    request.open('GET', '?responder=" + MavenClasspathProgressResponder.NAME + "&"
+            + MavenClasspathProgressResponder.POM_FILE_INPUT + "=%s', true);\n"
+            + "    request.onreadystatechange = function () {\n"
+            + "      if (request.readyState != 4) return;\n"
+            + "      var lines = request.responseText.split('\\n');\n"
+            + "      if (lines[0] == 'done') { window.location.reload(); return; }\n"
+            + "      var div = document.getElementById('%s');\n"
+            + "      div.innerHTML = '';\n"
+            + "      for (var i = 1; i < lines.length; i++) {\n"
+            + "        if (!lines[i]) continue;\n"
+            + "        var line = document.createElement('span');\n"
+            + "        line.className = 'meta';\n"
+            + "        line.appendChild(document.createTextNode(lines[i]));\n"
+            + "        div.appendChild(line);\n"
+            + "        div.appendChild(document.createElement('br'));\n"
+            + "      }\n"
+            + "      if (lines[0] == 'running') setTimeout(poll, 1000);\n"
+            + "    };\n"
+            + "    request.send(null);\n"
+            + "  };\n"
+            + "  setTimeout(poll, 1000);\n"
+            + "})();";
+
+    private static MavenClasspathExtractor sharedExtractor;
+
     private MavenClasspathExtractor mavenClasspathExtractor;
+    private boolean progressive = Boolean.getBoolean(PROGRESSIVE_PROPERTY);
 
     public MavenClasspathSymbolType() {
         super("MavenClasspathSymbolType");
-        this.mavenClasspathExtractor = new MavenClasspathExtractor();
+        this.mavenClasspathExtractor = sharedExtractor();
 
         wikiMatcher(new Matcher().startLineOrCell().string("!pomFile"));
 
@@ -25,10 +74,35 @@ public class MavenClasspathSymbolType extends SymbolType implements Rule, Transl
         htmlTranslation(this);
     }
 
+    /**
+     * The extractor pages render with, which {@link MavenClasspathProgressResponder} asks for the resolutions it
+     * started in the background.
+     */
+    static synchronized MavenClasspathExtractor sharedExtractor() {
+        if (sharedExtractor == null) {
+            sharedExtractor = new MavenClasspathExtractor();
+        }
+        return sharedExtractor;
+    }
+
     @Override
     public String toTarget(Translator translator, Symbol symbol) {
-        List<String> classpathElements = getClasspathElements(symbol);
+        if (!progressive) {
+            return render(getClasspathElements(symbol));
+        }
+
+        String argument = symbol.childAt(0).getContent();
+        ClasspathResolution resolution = new PomFileDirective(argument).resolveInBackground(mavenClasspathExtractor);
+        if (resolution.isFailed()) {
+            return HtmlUtil.metaText(MavenClasspathProgressResponder.failedLine(argument, resolution)) + HtmlUtil.BRtag;
+        }
+        if (resolution.isDone()) {
+            return render(resolution.getClasspathEntries());
+        }
+        return renderProgress(argument, resolution);
+    }
 
+    private String render(List<String> classpathElements) {
         String classpathForRender = "";
         for (String element : classpathElements) {
             classpathForRender += HtmlUtil.metaText("classpath: " + element) + HtmlUtil.BRtag;
@@ -38,17 +112,30 @@ public class MavenClasspathSymbolType extends SymbolType implements Rule, Transl
 
     }
 
-	private List<String> getClasspathElements(Symbol symbol) {
-        String pomFile = symbol.childAt(0).getContent();
-		String scope = MavenClasspathExtractor.DEFAULT_SCOPE;
-
-		if (pomFile.contains("@")) {
-        	String[] s = pomFile.split("@");
-        	pomFile = s[0];
-        	scope = s[1];
+    /**
+     * Renders what is known so far, plus a script which polls {@link MavenClasspathProgressResponder} and reloads
+     * the page once the classpath is resolved.
+     */
+    private String renderProgress(String argument, ClasspathResolution resolution) {
+        String id = "maven-classpath-" + Integer.toHexString(argument.hashCode());
+        StringBuilder html = new StringBuilder("<div id=\"").append(id).append("\">");
+        for (String entry : resolution.getDownloadedEntries()) {
+            html.append(HtmlUtil.metaText(MavenClasspathProgressResponder.downloadedLine(entry))).append(HtmlUtil.BRtag);
+        }
+        html.append(HtmlUtil.metaText(MavenClasspathProgressResponder.runningLine(argument))).append(HtmlUtil.BRtag);
+        html.append("</div>");
+        try {
+            html.append("<script type=\"text/javascript\">")
+                    .append(String.format(POLL_SCRIPT, URLEncoder.encode(argument, "UTF-8"), id))
+                    .append("</script>");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
         }
+        return html.toString();
+    }
 
-		return mavenClasspathExtractor.extractClasspathEntries(new File(pomFile), scope);
+	private List<String> getClasspathElements(Symbol symbol) {
+		return new PomFileDirective(symbol.childAt(0).getContent()).extractClasspathEntries(mavenClasspathExtractor);
 	}
 
     @Override
@@ -57,8 +144,7 @@ public class MavenClasspathSymbolType extends SymbolType implements Rule, Transl
 
         if (!next.isType(SymbolType.Whitespace)) return Symbol.nothing;
 
-        symbol.add(parser.moveNext(1).getContent());
-
+        symbol.add(parser.parseLiteral(ARGUMENT_END));
 
         return new Maybe<Symbol>(symbol);
     }
@@ -76,10 +162,25 @@ public class MavenClasspathSymbolType extends SymbolType implements Rule, Transl
         this.mavenClasspathExtractor = mavenClasspathExtractor;
     }
 
+    /**
+     * Exposed for testing
+     */
+    protected void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+
 	@Override
 	public Collection<String> providePaths(Translator translator, Symbol symbol) {
 		return getClasspathElements(symbol);
 	}
+
+	/**
+	 * Fingerprint of the classpath {@link #providePaths} returns, so test runners can tell whether a warm JVM
+	 * started for an earlier run has the same classpath.
+	 */
+	public String provideFingerprint(Translator translator, Symbol symbol) {
+		return new PomFileDirective(symbol.childAt(0).getContent()).extractClasspathFingerprint(mavenClasspathExtractor);
+	}
 }
 
 
@@ -0,0 +1,129 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Shared trie of path segments (directory and file names). Classpath entries sharing the local repository prefix
+ * and groupId directories share the nodes for those directories, so an entry is stored as a single node id.
+ * <p/>
+ * Nodes are never changed once added, and are stored in fixed size chunks that are never copied, so
+ * {@link #decode(int)} needs no lock. Nodes are never removed either: {@link ClasspathCache} replaces the whole
+ * table once enough of it is unused.
+ */
+public class PathSegmentTable {
+
+    private static final Pattern SEPARATOR = Pattern.compile(Pattern.quote(File.separator));
+    private static final int ROOT = -1;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final Map<String, Integer> segmentIds = new HashMap<String, Integer>();
+    private volatile String[][] segments = new String[0][];
+    private int segmentCount;
+
+    private final Map<Long, Integer> nodeIds = new HashMap<Long, Integer>();
+    private volatile int[][] nodeParents = new int[0][];
+    private volatile int[][] nodeSegments = new int[0][];
+    private int nodeCount;
+
+    public synchronized int encode(String path) {
+        int node = ROOT;
+        for (String segment : SEPARATOR.split(path, -1)) {
+            node = child(node, intern(segment));
+        }
+        return node;
+    }
+
+    public String decode(int node) {
+        int[][] parents = nodeParents;
+        int[][] nodeSegmentIds = nodeSegments;
+        String[][] segmentNames = segments;
+
+        int depth = 0;
+        for (int n = node; n != ROOT; n = parents[n >> CHUNK_BITS][n & (CHUNK_SIZE - 1)]) {
+            depth++;
+        }
+        String[] parts = new String[depth];
+        for (int n = node; n != ROOT; n = parents[n >> CHUNK_BITS][n & (CHUNK_SIZE - 1)]) {
+            int segment = nodeSegmentIds[n >> CHUNK_BITS][n & (CHUNK_SIZE - 1)];
+            parts[--depth] = segmentNames[segment >> CHUNK_BITS][segment & (CHUNK_SIZE - 1)];
+        }
+
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                path.append(File.separatorChar);
+            }
+            path.append(parts[i]);
+        }
+        return path.toString();
+    }
+
+    public synchronized int segmentCount() {
+        return segmentCount;
+    }
+
+    public synchronized int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Exposed for testing
+     */
+    synchronized String segment(int segmentId) {
+        return segments[segmentId >> CHUNK_BITS][segmentId & (CHUNK_SIZE - 1)];
+    }
+
+    private int intern(String segment) {
+        Integer id = segmentIds.get(segment);
+        if (id == null) {
+            id = segmentCount;
+            String[][] chunks = segments;
+            if (id >> CHUNK_BITS == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length + 1);
+                chunks[chunks.length - 1] = new String[CHUNK_SIZE];
+            }
+            chunks[id >> CHUNK_BITS][id & (CHUNK_SIZE - 1)] = segment;
+            segments = chunks;
+            segmentCount++;
+            segmentIds.put(segment, id);
+        }
+        return id;
+    }
+
+    private int child(int parent, int segment) {
+        Long key = ((long) parent << 32) | (segment & 0xffffffffL);
+        Integer node = nodeIds.get(key);
+        if (node == null) {
+            node = addNode(parent, segment);
+            nodeIds.put(key, node);
+        }
+        return node;
+    }
+
+    private int addNode(int parent, int segment) {
+        int node = nodeCount;
+        int[][] parents = nodeParents;
+        int[][] nodeSegmentIds = nodeSegments;
+        if (node >> CHUNK_BITS == parents.length) {
+            parents = grow(parents);
+            nodeSegmentIds = grow(nodeSegmentIds);
+        }
+        parents[node >> CHUNK_BITS][node & (CHUNK_SIZE - 1)] = parent;
+        nodeSegmentIds[node >> CHUNK_BITS][node & (CHUNK_SIZE - 1)] = segment;
+        // publish after the node is complete
+        nodeSegments = nodeSegmentIds;
+        nodeParents = parents;
+        return nodeCount++;
+    }
+
+    private static int[][] grow(int[][] chunks) {
+        int[][] grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[chunks.length] = new int[CHUNK_SIZE];
+        return grown;
+    }
+}
@@ -0,0 +1,99 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Argument of the <code>!pomFile</code> directive:
+ * <pre>
+ * path/to/pom.xml[@scope][#preset][;exclude=pattern,...][;include=pattern,...]
+ * </pre>
+ * Presets are described in {@link ResolutionPreset}, patterns in {@link DependencyPatternSelector}.
+ */
+public class PomFileDirective {
+
+    private final String pomFile;
+    private final String scope;
+    private final ResolutionPreset preset;
+    private final List<String> includes = new ArrayList<String>();
+    private final List<String> excludes = new ArrayList<String>();
+
+    public PomFileDirective(String argument) {
+        String[] options = argument.split(";");
+
+        String pom = options[0];
+        ResolutionPreset pomPreset = ResolutionPreset.DEFAULT;
+        if (pom.contains("#")) {
+            pomPreset = ResolutionPreset.named(pom.substring(pom.indexOf('#') + 1));
+            pom = pom.substring(0, pom.indexOf('#'));
+        }
+        String pomScope = MavenClasspathExtractor.DEFAULT_SCOPE;
+        if (pom.contains("@")) {
+            String[] s = pom.split("@");
+            pom = s[0];
+            pomScope = s[1];
+        }
+        this.pomFile = pom;
+        this.scope = pomScope;
+        this.preset = pomPreset;
+
+        for (int i = 1; i < options.length; i++) {
+            if (options[i].startsWith("include=")) {
+                includes.addAll(patterns(options[i].substring("include=".length())));
+            } else if (options[i].startsWith("exclude=")) {
+                excludes.addAll(patterns(options[i].substring("exclude=".length())));
+            } else if (options[i].length() > 0) {
+                throw new IllegalArgumentException("Unknown !pomFile option '" + options[i]
+                        + "', expected include=... or exclude=...");
+            }
+        }
+    }
+
+    private static List<String> patterns(String patterns) {
+        List<String> result = new ArrayList<String>();
+        for (String pattern : Arrays.asList(patterns.split(","))) {
+            if (pattern.trim().length() > 0) {
+                result.add(pattern.trim());
+            }
+        }
+        return result;
+    }
+
+    public File getPomFile() {
+        return new File(pomFile);
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public ResolutionPreset getPreset() {
+        return preset;
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public List<String> extractClasspathEntries(MavenClasspathExtractor mavenClasspathExtractor) {
+        return mavenClasspathExtractor.extractClasspathEntries(getPomFile(), scope, includes, excludes, preset);
+    }
+
+    public String extractClasspathFingerprint(MavenClasspathExtractor mavenClasspathExtractor) {
+        return mavenClasspathExtractor.extractClasspathFingerprint(getPomFile(), scope, includes, excludes, preset);
+    }
+
+    public ClasspathResolution resolveInBackground(MavenClasspathExtractor mavenClasspathExtractor) {
+        return mavenClasspathExtractor.resolveInBackground(getPomFile(), scope, includes, excludes, preset);
+    }
+
+    public ClasspathResolution findResolution(MavenClasspathExtractor mavenClasspathExtractor) {
+        return mavenClasspathExtractor.findResolution(getPomFile(), scope, includes, excludes, preset);
+    }
+}
@@ -0,0 +1,61 @@
+package fitnesse.wikitext.widgets;
+
+import hudson.maven.MavenRequest;
+import org.apache.maven.model.building.ModelBuildingRequest;
+
+import java.util.Locale;
+
+/**
+ * Named Maven configurations a <code>!pomFile</code> directive can pick with a <code>#preset</code> suffix, e.g.
+ * <code>!pomFile pom.xml@test#fast</code>.
+ */
+public enum ResolutionPreset {
+
+    /**
+     * Offline, without plugin processing, with minimal model validation and without environment variables. Fit for
+     * poms whose dependencies are in the local repository already.
+     */
+    FAST {
+        @Override
+        void configure(MavenRequest mavenRequest) {
+            mavenRequest.setOffline(true);
+            mavenRequest.setProcessPlugins(false);
+            mavenRequest.setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL);
+        }
+
+        @Override
+        boolean importsEnvironment() {
+            return false;
+        }
+    },
+
+    /**
+     * Settings, profiles, validation and plugin processing as Maven uses them by default.
+     */
+    FULL;
+
+    public static final ResolutionPreset DEFAULT = FULL;
+
+    public static ResolutionPreset named(String name) {
+        for (ResolutionPreset preset : values()) {
+            if (preset.getName().equals(name)) {
+                return preset;
+            }
+        }
+        throw new IllegalArgumentException("Unknown !pomFile preset '" + name + "', expected fast or full");
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+
+    void configure(MavenRequest mavenRequest) {
+    }
+
+    /**
+     * Whether environment variables are available to poms and settings as <code>env.*</code> properties.
+     */
+    boolean importsEnvironment() {
+        return true;
+    }
+}
@@ -0,0 +1,109 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap used by cached classpaths, kept once as lists of strings and once as {@link CompactClasspath}s
+ * sharing a {@link PathSegmentTable}. Each side is the used heap after garbage collection with the classpaths
+ * reachable, minus the used heap before they were built.
+ * <p/>
+ * Run as <code>java fitnesse.wikitext.widgets.ClasspathCacheHeapBenchmark [classpaths]</code> with the test
+ * classpath, preferably with a fixed heap (e.g. -Xms512m -Xmx512m) so collections settle. The serial collector
+ * leaves some garbage behind on purpose, so add -XX:MarkSweepDeadRatio=0 when using it.
+ */
+public class ClasspathCacheHeapBenchmark {
+
+    private static final String REPOSITORY = File.separator + "home" + File.separator + "fitnesse"
+            + File.separator + ".m2" + File.separator + "repository";
+
+    /**
+     * Holds the classpaths being measured. They are built in separate methods, so no stack frame keeps them reachable
+     * once this is cleared.
+     */
+    private static Object retained;
+
+    public static void main(String[] args) {
+        int classpaths = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+
+        long before = usedHeapAfterGc();
+        retainPlainClasspaths(classpaths);
+        long plainBytes = usedHeapAfterGc() - before;
+        retained = null;
+
+        before = usedHeapAfterGc();
+        PathSegmentTable segmentTable = retainCompactClasspaths(classpaths);
+        long compactBytes = usedHeapAfterGc() - before;
+
+        List<String> sample = syntheticClasspath(classpaths / 2);
+        if (!sample.equals(((List<?>) retained).get(classpaths / 2))) {
+            throw new IllegalStateException("compact classpath differs from the plain one");
+        }
+        System.out.println(String.format("%d classpaths of %d entries: plain %d KB, compact %d KB (%d segments, "
+                + "%d nodes)", classpaths, sample.size(), plainBytes / 1024, compactBytes / 1024,
+                segmentTable.segmentCount(), segmentTable.nodeCount()));
+    }
+
+    private static void retainPlainClasspaths(int classpaths) {
+        List<List<String>> plainClasspaths = new ArrayList<List<String>>();
+        for (int page = 0; page < classpaths; page++) {
+            plainClasspaths.add(syntheticClasspath(page));
+        }
+        retained = plainClasspaths;
+    }
+
+    private static PathSegmentTable retainCompactClasspaths(int classpaths) {
+        PathSegmentTable segmentTable = new PathSegmentTable();
+        List<CompactClasspath> compactClasspaths = new ArrayList<CompactClasspath>();
+        for (int page = 0; page < classpaths; page++) {
+            compactClasspaths.add(new CompactClasspath(segmentTable, syntheticClasspath(page), null));
+        }
+        retained = compactClasspaths;
+        return segmentTable;
+    }
+
+    /**
+     * Collects until the heap stops shrinking. Reads the usage the collector recorded right after collecting, as
+     * reading the current usage counts whatever was allocated since.
+     */
+    private static long usedHeapAfterGc() {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+                    now += pool.getCollectionUsage().getUsed();
+                }
+            }
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    /**
+     * Every call builds new strings, like a resolution does, so the plain classpaths share nothing.
+     */
+    private static List<String> syntheticClasspath(int page) {
+        List<String> entries = new ArrayList<String>();
+        entries.add(File.separator + "projects" + File.separator + "module" + (page % 20)
+                + File.separator + "target" + File.separator + "test-classes");
+        entries.add(File.separator + "projects" + File.separator + "module" + (page % 20)
+                + File.separator + "target" + File.separator + "classes");
+        for (int i = 0; i < 40; i++) {
+            String artifactId = "artifact" + i;
+            String version = "1." + ((page + i) % 3);
+            entries.add(REPOSITORY + File.separator + "org" + File.separator + "example" + File.separator + "group"
+                    + (i % 8) + File.separator + artifactId + File.separator + version + File.separator + artifactId
+                    + "-" + version + ".jar");
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,154 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClasspathCacheTest {
+
+    private static final String REPOSITORY = File.separator + "home" + File.separator + "fitnesse"
+            + File.separator + ".m2" + File.separator + "repository";
+
+    private static final List<File> NO_PARENTS = Collections.emptyList();
+
+    private ClasspathCache classpathCache;
+    private File pomFile;
+
+    @Before
+    public void setUp() throws IOException {
+        classpathCache = new ClasspathCache();
+        pomFile = File.createTempFile("pom", ".xml");
+        pomFile.deleteOnExit();
+    }
+
+    @Test
+    public void returnsCachedClasspathForSamePomAndScope() {
+        List<String> entries = Arrays.asList(jar("org/fitnesse", "fitnesse", "1.0"), jar("junit", "junit", "4.6"));
+        classpathCache.put(pomFile, "test", "settings", NO_PARENTS, entries, "digest");
+
+        assertEquals(entries, classpathCache.get(pomFile, "test", "settings"));
+        assertNull(classpathCache.get(pomFile, "compile", "settings"));
+    }
+
+    @Test
+    public void forgetsClasspathWhenPomIsModified() {
+        classpathCache.put(pomFile, "test", "settings", NO_PARENTS, Arrays.asList(jar("junit", "junit", "4.6")),
+                "digest");
+
+        assertTrue(pomFile.setLastModified(pomFile.lastModified() - 10000));
+
+        assertNull(classpathCache.get(pomFile, "test", "settings"));
+    }
+
+    @Test
+    public void forgetsClasspathWhenAParentPomIsModified() throws IOException {
+        File parentPomFile = File.createTempFile("parent", ".xml");
+        parentPomFile.deleteOnExit();
+        classpathCache.put(pomFile, "test", "settings", Arrays.asList(parentPomFile),
+                Arrays.asList(jar("junit", "junit", "4.6")), "digest");
+
+        assertNotNull(classpathCache.get(pomFile, "test", "settings"));
+        assertTrue(parentPomFile.setLastModified(parentPomFile.lastModified() - 10000));
+
+        assertNull(classpathCache.get(pomFile, "test", "settings"));
+    }
+
+    @Test
+    public void forgetsClasspathResolvedWithAnotherConfiguration() {
+        classpathCache.put(pomFile, "test", "settings", NO_PARENTS, Arrays.asList(jar("junit", "junit", "4.6")),
+                "digest");
+
+        assertNull(classpathCache.get(pomFile, "test", "changed settings"));
+    }
+
+    @Test
+    public void survivesSavingAndLoading() throws IOException {
+        List<String> entries = Arrays.asList(jar("org/fitnesse", "fitnesse", "1.0"), jar("junit", "junit", "4.6"));
+        classpathCache.put(pomFile, "compile", "settings", NO_PARENTS, entries, "digest");
+        File cacheFile = File.createTempFile("classpath", ".cache");
+        cacheFile.deleteOnExit();
+
+        classpathCache.save(cacheFile);
+        ClasspathCache loaded = new ClasspathCache();
+        loaded.load(cacheFile);
+
+        assertEquals(entries, loaded.get(pomFile, "compile", "settings"));
+        assertEquals("digest", loaded.get(pomFile, "compile", "settings").getEntriesDigest());
+        assertTrue(pomFile.setLastModified(pomFile.lastModified() - 10000));
+        assertNull(loaded.get(pomFile, "compile", "settings"));
+    }
+
+    @Test
+    public void sharesPathSegmentsBetweenClasspaths() {
+        PathSegmentTable segmentTable = new PathSegmentTable();
+        CompactClasspath first = new CompactClasspath(segmentTable,
+                Arrays.asList(jar("org/fitnesse", "fitnesse", "1.0")), null);
+        int nodesAfterFirst = segmentTable.nodeCount();
+        new CompactClasspath(segmentTable, Arrays.asList(jar("org/fitnesse", "fitnesse", "1.1")), null);
+
+        assertEquals(nodesAfterFirst + 2, segmentTable.nodeCount());
+        assertEquals(jar("org/fitnesse", "fitnesse", "1.0"), first.get(0));
+    }
+
+    @Test
+    public void releasesThePathsOfReplacedClasspaths() {
+        classpathCache.put(pomFile, "test", "settings", NO_PARENTS, syntheticClasspath(0), "digest");
+        int nodesForOneClasspath = classpathCache.segmentNodeCount();
+
+        for (int version = 1; version < 100; version++) {
+            List<String> entries = new ArrayList<String>();
+            for (int i = 0; i < 40; i++) {
+                entries.add(jar("org/example/group" + (i % 8), "artifact" + i, "2." + version));
+            }
+            classpathCache.put(pomFile, "test", "settings", NO_PARENTS, entries, "digest");
+        }
+
+        assertTrue(classpathCache.segmentNodeCount() < 3 * nodesForOneClasspath);
+        assertEquals(jar("org/example/group0", "artifact0", "2.99"),
+                classpathCache.get(pomFile, "test", "settings").get(0));
+    }
+
+    @Test
+    public void decodesConcurrentlyWithEncoding() throws InterruptedException {
+        final PathSegmentTable segmentTable = new PathSegmentTable();
+        final CompactClasspath classpath = new CompactClasspath(segmentTable, syntheticClasspath(0), null);
+        Thread encoder = new Thread() {
+            @Override
+            public void run() {
+                for (int page = 1; page < 300; page++) {
+                    new CompactClasspath(segmentTable, syntheticClasspath(page), null);
+                }
+            }
+        };
+        encoder.start();
+        while (encoder.isAlive()) {
+            assertEquals(syntheticClasspath(0), classpath);
+        }
+        encoder.join();
+    }
+
+    private List<String> syntheticClasspath(int page) {
+        List<String> entries = new ArrayList<String>();
+        entries.add(File.separator + "projects" + File.separator + "module" + (page % 20)
+                + File.separator + "target" + File.separator + "test-classes");
+        entries.add(File.separator + "projects" + File.separator + "module" + (page % 20)
+                + File.separator + "target" + File.separator + "classes");
+        for (int i = 0; i < 40; i++) {
+            entries.add(jar("org/example/group" + (i % 8), "artifact" + i, "1." + ((page + i) % 3)));
+        }
+        return entries;
+    }
+
+    private String jar(String groupPath, String artifactId, String version) {
+        return REPOSITORY + File.separator + groupPath.replace('/', File.separatorChar) + File.separator + artifactId
+                + File.separator + version + File.separator + artifactId + "-" + version + ".jar";
+    }
+}
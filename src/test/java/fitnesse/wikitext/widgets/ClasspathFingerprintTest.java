@@ -0,0 +1,94 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClasspathFingerprintTest {
+
+    private File classes;
+    private File jar;
+    private List<String> classpath;
+
+    @Before
+    public void setUp() throws IOException {
+        File root = File.createTempFile("fingerprint", "");
+        assertTrue(root.delete());
+        classes = new File(root, "target/classes");
+        assertTrue(new File(classes, "org/example").mkdirs());
+        write(new File(classes, "org/example/Fixture.class"), "fixture");
+        jar = new File(root, "lib.jar");
+        write(jar, "jar");
+
+        classpath = Arrays.asList(classes.getPath(), jar.getPath());
+    }
+
+    @Test
+    public void isStableForAnUnchangedClasspath() {
+        assertEquals(fingerprint(classpath), fingerprint(classpath));
+    }
+
+    @Test
+    public void dependsOnTheOrderOfEntries() {
+        assertFalse(fingerprint(classpath).equals(
+                fingerprint(Arrays.asList(jar.getPath(), classes.getPath()))));
+    }
+
+    @Test
+    public void changesWhenAJarIsReplaced() {
+        String before = fingerprint(classpath);
+
+        assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+
+        assertFalse(before.equals(fingerprint(classpath)));
+    }
+
+    @Test
+    public void changesWhenAClassIsAddedToADirectory() throws IOException {
+        String before = fingerprint(classpath);
+
+        write(new File(classes, "org/example/OtherFixture.class"), "other fixture");
+
+        assertFalse(before.equals(fingerprint(classpath)));
+    }
+
+    @Test
+    public void looksUpFilesAgainBehindARememberedListing() throws IOException {
+        ClasspathFingerprint fingerprint = new ClasspathFingerprint();
+        File fixture = new File(classes, "org/example/Fixture.class");
+        File directory = fixture.getParentFile();
+        assertTrue(directory.setLastModified(directory.lastModified() - 10000));
+        String entriesDigest = ClasspathFingerprint.entriesDigest(classpath);
+        String before = fingerprint.of(entriesDigest, classpath);
+
+        long directoryLastModified = directory.lastModified();
+        assertTrue(fixture.setLastModified(fixture.lastModified() - 10000));
+        assertEquals(directoryLastModified, directory.lastModified());
+
+        assertFalse(before.equals(fingerprint.of(entriesDigest, classpath)));
+        assertEquals(fingerprint(classpath), fingerprint.of(entriesDigest, classpath));
+    }
+
+    /**
+     * Fingerprint taken by a new instance, which remembers no listings.
+     */
+    private String fingerprint(List<String> classpathEntries) {
+        return new ClasspathFingerprint().of(ClasspathFingerprint.entriesDigest(classpathEntries), classpathEntries);
+    }
+
+    private void write(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+}
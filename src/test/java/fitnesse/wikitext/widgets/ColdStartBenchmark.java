@@ -0,0 +1,47 @@
+package fitnesse.wikitext.widgets;
+
+import hudson.maven.MavenEmbedderException;
+import hudson.maven.MavenEmbedderUtils;
+import hudson.maven.MavenRequest;
+import org.codehaus.plexus.PlexusContainer;
+
+import java.io.File;
+
+/**
+ * Measures the time to the first resolved classpath in a fresh JVM, followed by a second resolution of another
+ * pom. In <code>shared</code> mode the extractor builds the embedded Maven runtime once, so the second resolution no
+ * longer pays for it. In <code>fresh</code> mode it builds a new one whenever asked, as it did before the runtime
+ * was shared.
+ * <p/>
+ * Run as <code>java fitnesse.wikitext.widgets.ColdStartBenchmark [shared|fresh] [pom.xml] [other-pom.xml]</code>
+ * with the test classpath, using a new JVM per measurement.
+ */
+public class ColdStartBenchmark {
+
+    public static void main(String[] args) {
+        boolean fresh = args.length > 0 && "fresh".equals(args[0]);
+        File first = new File(args.length > 1 ? args[1] : "src/test/resources/MavenClasspathWidget/pom.xml");
+        File second = new File(args.length > 2 ? args[2] : "pom.xml");
+
+        long start = System.nanoTime();
+        MavenClasspathExtractor mavenClasspathExtractor = fresh ? new FreshContainerExtractor()
+                : new MavenClasspathExtractor();
+        int entries = mavenClasspathExtractor.extractClasspathEntries(first).size();
+        long firstMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        int secondEntries = mavenClasspathExtractor.extractClasspathEntries(second).size();
+        long secondMillis = (System.nanoTime() - start) / 1000000;
+
+        System.out.println(String.format("%s: time to first classpath: %d ms (%d entries), next pom: %d ms "
+                + "(%d entries)", fresh ? "fresh" : "shared", firstMillis, entries, secondMillis, secondEntries));
+    }
+
+    private static class FreshContainerExtractor extends MavenClasspathExtractor {
+        @Override
+        protected PlexusContainer plexusContainer() throws MavenEmbedderException {
+            return MavenEmbedderUtils.buildPlexusContainer(MavenClasspathExtractor.class.getClassLoader(), null,
+                    new MavenRequest());
+        }
+    }
+}
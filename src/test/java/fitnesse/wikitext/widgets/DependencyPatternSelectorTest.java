@@ -0,0 +1,63 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.Test;
+import org.sonatype.aether.graph.Dependency;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DependencyPatternSelectorTest {
+
+    private static final List<String> NONE = Collections.emptyList();
+
+    @Test
+    public void excludesByGroupAndArtifactWildcards() {
+        DependencyPatternSelector selector = new DependencyPatternSelector(NONE, Arrays.asList("org.slf4j:*", "*:jetty-*"));
+
+        assertFalse(selector.selectDependency(dependency("org.slf4j:slf4j-api:jar:1.6.1")));
+        assertFalse(selector.selectDependency(dependency("org.mortbay.jetty:jetty-util:jar:6.1.26")));
+        assertTrue(selector.selectDependency(dependency("commons-lang:commons-lang:jar:2.6")));
+    }
+
+    @Test
+    public void excludesByTypeAndClassifier() {
+        DependencyPatternSelector selector = new DependencyPatternSelector(NONE, Arrays.asList("*:*:*:sources", "*:*:war"));
+
+        assertFalse(selector.selectDependency(dependency("org.example:lib:jar:sources:1.0")));
+        assertFalse(selector.selectDependency(dependency("org.example:webapp:war:1.0")));
+        assertTrue(selector.selectDependency(dependency("org.example:lib:jar:1.0")));
+    }
+
+    @Test
+    public void includesOnlyMatchingDependenciesUnlessExcluded() {
+        DependencyPatternSelector selector = new DependencyPatternSelector(Arrays.asList("com.acme*:*"),
+                Arrays.asList("com.acme:legacy"));
+
+        assertTrue(selector.selectDependency(dependency("com.acme.fixtures:fixtures:jar:1.0")));
+        assertFalse(selector.selectDependency(dependency("com.acme:legacy:jar:1.0")));
+        assertFalse(selector.selectDependency(dependency("org.example:lib:jar:1.0")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPatternsWithEmptyParts() {
+        new DependencyPatternSelector(NONE, Arrays.asList("com.acme:"));
+    }
+
+    @Test
+    public void parsesPatternsFromTheDirective() {
+        PomFileDirective directive = new PomFileDirective("pom.xml@runtime;exclude=org.slf4j:*,*:*:*:sources;include=com.acme:*");
+
+        assertEquals("pom.xml", directive.getPomFile().getPath());
+        assertEquals("runtime", directive.getScope());
+        assertEquals(Arrays.asList("org.slf4j:*", "*:*:*:sources"), directive.getExcludes());
+        assertEquals(Arrays.asList("com.acme:*"), directive.getIncludes());
+    }
+
+    private Dependency dependency(String coordinates) {
+        return new Dependency(new DefaultArtifact(coordinates), "compile");
+    }
+}
@@ -0,0 +1,146 @@
+package fitnesse.wikitext.widgets;
+
+import hudson.maven.MavenRequest;
+import org.apache.maven.project.MavenProject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonatype.aether.RepositorySystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static fitnesse.wikitext.widgets.TemporaryMavenRepository.dependency;
+import static fitnesse.wikitext.widgets.TemporaryMavenRepository.pom;
+import static junit.framework.Assert.assertEquals;
+
+public class IncrementalDependencyResolverTest {
+
+    private TemporaryMavenRepository repository = new TemporaryMavenRepository();
+    private File project;
+    private MavenClasspathExtractor mavenClasspathExtractor;
+
+    @Before
+    public void setUp() throws IOException {
+        repository.create();
+        repository.install("shared", "1.0", "");
+        repository.install("shared", "2.0", "");
+        repository.install("leaf", "1.0", "");
+        repository.install("leaf", "2.0", "");
+        repository.install("lib-a", "1.0", dependency("shared", "1.0", ""));
+        repository.install("lib-a", "2.0", dependency("shared", "2.0", ""));
+        repository.install("lib-b", "1.0", dependency("shared", "1.0", "") + dependency("leaf", "1.0", ""));
+        repository.install("deep", "1.0", dependency("shared", "2.0", "") + dependency("leaf", "2.0", ""));
+        repository.install("lib-c", "1.0", dependency("deep", "1.0", ""));
+
+        mavenClasspathExtractor = repository.extractor();
+    }
+
+    @After
+    public void tearDown() {
+        repository.delete();
+    }
+
+    @Test
+    public void matchesAFullResolutionWhileThePomChanges() throws Exception {
+        String libB = dependency("lib-b", "1.0", "<scope>test</scope>");
+        String libC = dependency("lib-c", "1.0", "<scope>runtime</scope>");
+
+        assertMatchesFullResolution("", dependency("lib-a", "1.0", "") + libB + libC);
+        assertMatchesFullResolution("", dependency("lib-a", "2.0", "") + libB + libC);
+        assertMatchesFullResolution(dependency("shared", "1.0", ""), dependency("lib-a", "2.0", "") + libB + libC);
+        assertMatchesFullResolution(dependency("shared", "2.0", ""), dependency("lib-a", "2.0", "") + libB + libC);
+        assertMatchesFullResolution(dependency("shared", "2.0", ""), dependency("lib-a", "2.0", "")
+                + dependency("lib-b", "1.0", "<scope>test</scope><exclusions><exclusion><groupId>fitnesse</groupId>"
+                + "<artifactId>leaf</artifactId></exclusion></exclusions>") + libC);
+        assertMatchesFullResolution(dependency("shared", "2.0", "<scope>test</scope>"),
+                libB + dependency("leaf", "2.0", "") + dependency("lib-a", "1.0", ""));
+    }
+
+    @Test
+    public void reusesTheSubtreesOfUnchangedDependencies() throws Exception {
+        IncrementalDependencyResolver resolver = new IncrementalDependencyResolver();
+        writeProject("", dependency("lib-a", "1.0", "") + dependency("lib-c", "1.0", ""));
+        assertEquals(2, resolve(resolver, "project"));
+
+        writeProject("", dependency("lib-a", "2.0", "") + dependency("lib-c", "1.0", ""));
+        assertEquals(1, resolve(resolver, "project"));
+
+        writeProject(dependency("leaf", "1.0", ""), dependency("lib-a", "2.0", "") + dependency("lib-c", "1.0", ""));
+        assertEquals(1, resolve(resolver, "project"));
+    }
+
+    @Test
+    public void collectsSnapshotsAndVersionRangesAgain() throws Exception {
+        repository.install("snapshot", "1.0-SNAPSHOT", "");
+        repository.install("lib-d", "1.0", dependency("snapshot", "1.0-SNAPSHOT", ""));
+        File leafMetadata = new File(repository.getLocalRepository(), "fitnesse/leaf/maven-metadata-local.xml");
+        TemporaryMavenRepository.write(leafMetadata, "<metadata><groupId>fitnesse</groupId><artifactId>leaf</artifactId><versioning><versions>"
+                + "<version>1.0</version><version>2.0</version></versions></versioning></metadata>");
+        IncrementalDependencyResolver resolver = new IncrementalDependencyResolver();
+        writeProject("", dependency("lib-a", "1.0", "") + dependency("lib-d", "1.0", "")
+                + dependency("leaf", "[1.0,2.0)", ""));
+        assertEquals(3, resolve(resolver, "project"));
+
+        writeProject("", dependency("lib-a", "2.0", "") + dependency("lib-d", "1.0", "")
+                + dependency("leaf", "[1.0,2.0)", ""));
+        assertEquals(3, resolve(resolver, "project"));
+        assertMatchesFullResolution("", dependency("lib-a", "2.0", "") + dependency("lib-d", "1.0", "")
+                + dependency("leaf", "[1.0,2.0)", ""));
+    }
+
+    @Test
+    public void keepsTheGraphsOfTheMostRecentlyResolvedProjects() throws Exception {
+        IncrementalDependencyResolver resolver = new IncrementalDependencyResolver(1);
+        writeProject("", dependency("lib-a", "1.0", "") + dependency("lib-c", "1.0", ""));
+
+        assertEquals(2, resolve(resolver, "first"));
+        assertEquals(0, resolve(resolver, "first"));
+        assertEquals(2, resolve(resolver, "second"));
+        assertEquals(2, resolve(resolver, "first"));
+    }
+
+    private void assertMatchesFullResolution(String dependencyManagement, String dependencies) throws Exception {
+        writeProject(dependencyManagement, dependencies);
+        for (String scope : new String[]{"compile", "runtime", "test"}) {
+            assertEquals(scope, fullResolution(scope), mavenClasspathExtractor.extractClasspathEntries(project, scope));
+        }
+    }
+
+    private List<String> fullResolution(String scope) throws Exception {
+        MavenRequest mavenRequest = mavenClasspathExtractor.mavenConfiguration();
+        mavenRequest.setResolveDependencies(true);
+        mavenRequest.setBaseDirectory(project.getParent());
+        mavenRequest.setPom(project.getAbsolutePath());
+        MavenProject mavenProject = new DependencyResolvingMavenEmbedder(mavenClasspathExtractor.plexusContainer(),
+                mavenRequest).buildProject(project).getProject();
+
+        if ("compile".equals(scope)) {
+            return mavenProject.getCompileClasspathElements();
+        } else if ("runtime".equals(scope)) {
+            return mavenProject.getRuntimeClasspathElements();
+        }
+        return mavenProject.getTestClasspathElements();
+    }
+
+    private int resolve(IncrementalDependencyResolver resolver, String key) throws Exception {
+        MavenRequest mavenRequest = mavenClasspathExtractor.mavenConfiguration();
+        mavenRequest.setResolveDependencies(false);
+        mavenRequest.setOffline(true);
+        mavenRequest.setBaseDirectory(project.getParent());
+        mavenRequest.setPom(project.getAbsolutePath());
+        DependencyResolvingMavenEmbedder embedder = new DependencyResolvingMavenEmbedder(
+                mavenClasspathExtractor.plexusContainer(), mavenRequest);
+        MavenProject mavenProject = embedder.buildProject(project).getProject();
+
+        return resolver.resolve(key, mavenProject, mavenProject.getProjectBuildingRequest().getRepositorySession(),
+                embedder.lookup(RepositorySystem.class));
+    }
+
+    private void writeProject(String dependencyManagement, String dependencies) throws IOException {
+        project = repository.writeProject("project/pom.xml", pom("project", "1.0",
+                "<dependencyManagement><dependencies>" + dependencyManagement + "</dependencies></dependencyManagement>"
+                        + "<dependencies>" + dependencies + "</dependencies>"));
+    }
+}
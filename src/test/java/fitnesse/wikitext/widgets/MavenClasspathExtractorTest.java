@@ -1,25 +1,52 @@
 package fitnesse.wikitext.widgets;
 
+import hudson.maven.MavenEmbedderException;
+import hudson.maven.MavenRequest;
+import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
+import static fitnesse.wikitext.widgets.TemporaryMavenRepository.dependency;
+import static fitnesse.wikitext.widgets.TemporaryMavenRepository.pom;
+import static fitnesse.wikitext.widgets.TemporaryMavenRepository.write;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 public class MavenClasspathExtractorTest {
 
     private MavenClasspathExtractor mavenClasspathExtractor;
     private File pomFile;
+    private TemporaryMavenRepository repository = new TemporaryMavenRepository();
 
     @Before
-    public void setUp() {
+    public void setUp() throws IOException {
         pomFile = new File(MavenClasspathExtractor.class
                 .getClassLoader().getResource("MavenClasspathWidget/pom.xml").getFile());
 
         mavenClasspathExtractor = new MavenClasspathExtractor();
+        repository.create();
+    }
+
+    @After
+    public void tearDown() {
+        repository.delete();
     }
 
     @Test
@@ -36,9 +63,244 @@ public class MavenClasspathExtractorTest {
         assertTrue(path.contains("commons-lang"));
     }
 
+    @Test
+    public void sharesTheEmbeddedMavenRuntimeBetweenResolutions() throws Exception {
+        mavenClasspathExtractor.extractClasspathEntries(pomFile, "compile");
+        Object plexusContainer = mavenClasspathExtractor.plexusContainer();
+
+        mavenClasspathExtractor.extractClasspathEntries(pomFile, "runtime");
+
+        assertSame(plexusContainer, mavenClasspathExtractor.plexusContainer());
+    }
+
+    @Test
+    public void neverResolvesExcludedDependencies() throws IOException {
+        // fitnesse:present:1.0 depends on fitnesse:missing:1.0, which is in no repository at all
+        repository.install("present", "1.0", dependency("missing", "1.0", ""));
+        File project = projectDependingOnPresent();
+
+        mavenClasspathExtractor = repository.extractor();
+        List<String> classpathEntries = mavenClasspathExtractor.extractClasspathEntries(project, "compile",
+                Collections.<String>emptyList(), Arrays.asList("fitnesse:missing"), ResolutionPreset.DEFAULT);
+
+        assertEquals(2, classpathEntries.size());
+        assertTrue(classpathEntries.get(1).endsWith("present-1.0.jar"));
+        // a resolution attempt would have left a *.lastUpdated marker behind
+        assertFalse(new File(repository.getLocalRepository(), "fitnesse/missing").exists());
+    }
+
+    private File projectDependingOnPresent() throws IOException {
+        return repository.writeProject("project/pom.xml",
+                pom("project", "1.0", "<dependencies>" + dependency("present", "1.0", "") + "</dependencies>"));
+    }
+
+    @Test
+    public void resolvesAgainOnceTheParentPomChanges() throws IOException {
+        repository.install("present", "1.0", "");
+        repository.install("other", "1.0", "");
+        repository.writeProject("pom.xml", pom("parent", "1.0", "<packaging>pom</packaging>"
+                + "<dependencies>" + dependency("present", "1.0", "") + "</dependencies>"));
+        File project = repository.writeProject("project/pom.xml", "<project><modelVersion>4.0.0</modelVersion>"
+                + "<parent><groupId>fitnesse</groupId><artifactId>parent</artifactId><version>1.0</version></parent>"
+                + "<artifactId>project</artifactId></project>");
+
+        mavenClasspathExtractor = repository.extractor();
+        assertTrue(mavenClasspathExtractor.extractClasspathEntries(project, "compile").get(1)
+                .endsWith("present-1.0.jar"));
+        repository.writeProject("pom.xml", pom("parent", "1.0", "<packaging>pom</packaging>"
+                + "<dependencies>" + dependency("other", "1.0", "") + "</dependencies>"));
+
+        assertTrue(mavenClasspathExtractor.extractClasspathEntries(project, "compile").get(1)
+                .endsWith("other-1.0.jar"));
+    }
+
     @Test(expected = MavenClasspathExtractionException.class)
     public void failsOnNonExistingPom() {
         mavenClasspathExtractor.extractClasspathEntries(new File("test-pom.xml"));
     }
 
+    @Test
+    public void reloadsAttachToTheRunningResolution() throws IOException {
+        repository.install("present", "1.0", "");
+        File project = projectDependingOnPresent();
+
+        mavenClasspathExtractor = repository.extractor();
+        List<String> none = Collections.emptyList();
+        ClasspathResolution resolution = mavenClasspathExtractor.resolveInBackground(project, "compile", none, none, ResolutionPreset.FULL);
+
+        assertSame(resolution, mavenClasspathExtractor.resolveInBackground(project, "compile", none, none, ResolutionPreset.FULL));
+        List<String> classpathEntries = mavenClasspathExtractor.extractClasspathEntries(project, "compile");
+        assertTrue(resolution.isDone());
+        assertSame(resolution.getClasspathEntries(), classpathEntries);
+        assertNull(mavenClasspathExtractor.findResolution(project, "compile", none, none, ResolutionPreset.FULL));
+    }
+
+    @Test
+    public void showsABackgroundFailureOnceBeforeStartingOver() {
+        File missingPom = new File("test-pom.xml");
+        List<String> none = Collections.emptyList();
+        ClasspathResolution resolution = mavenClasspathExtractor.resolveInBackground(missingPom, "test", none, none, ResolutionPreset.FULL);
+        try {
+            resolution.await();
+            fail();
+        } catch (MavenClasspathExtractionException expected) {
+        }
+
+        MavenClasspathProgressResponder responder = new MavenClasspathProgressResponder(mavenClasspathExtractor);
+        assertTrue(responder.progress("test-pom.xml").startsWith("failed\n"));
+        // another extractor has its own configuration, and its own resolutions
+        assertEquals("done\n", new MavenClasspathProgressResponder(new MavenClasspathExtractor()).progress("test-pom.xml"));
+        assertNotSame(resolution, new MavenClasspathExtractor().resolveInBackground(missingPom, "test", none, none, ResolutionPreset.FULL));
+        assertSame(resolution, mavenClasspathExtractor.resolveInBackground(missingPom, "test", none, none, ResolutionPreset.FULL));
+        assertEquals("done\n", responder.progress("test-pom.xml"));
+        assertNotSame(resolution, mavenClasspathExtractor.resolveInBackground(missingPom, "test", none, none, ResolutionPreset.FULL));
+    }
+
+    @Test
+    public void forgetsABackgroundFailureOnceResolvedSynchronously() throws IOException {
+        repository.install("present", "1.0", "");
+        File project = repository.writeProject("project/pom.xml", "<project>");
+
+        mavenClasspathExtractor = repository.extractor();
+        List<String> none = Collections.emptyList();
+        ClasspathResolution resolution = mavenClasspathExtractor.resolveInBackground(project, "test", none, none,
+                ResolutionPreset.FULL);
+        try {
+            resolution.await();
+            fail();
+        } catch (MavenClasspathExtractionException expected) {
+        }
+        MavenClasspathProgressResponder responder = new MavenClasspathProgressResponder(mavenClasspathExtractor);
+        assertTrue(responder.progress(project.getPath()).startsWith("failed\n"));
+
+        projectDependingOnPresent();
+        mavenClasspathExtractor.extractClasspathEntries(project);
+
+        assertEquals("done\n", responder.progress(project.getPath()));
+    }
+
+    @Test
+    public void fingerprintsTheCurrentStateOfClasspathDirectories() throws IOException {
+        repository.install("present", "1.0", "");
+        File project = projectDependingOnPresent();
+
+        mavenClasspathExtractor = repository.extractor();
+        List<String> none = Collections.emptyList();
+        List<String> classpathEntries = mavenClasspathExtractor.extractClasspathEntries(project, "compile");
+        String resolved = mavenClasspathExtractor.extractClasspathFingerprint(project, "compile", none, none,
+                ResolutionPreset.DEFAULT);
+
+        File classes = new File(project.getParentFile(), "target/classes");
+        assertTrue(classes.mkdirs());
+        File fixture = new File(classes, "Fixture.class");
+        write(fixture, "fixture");
+        String built = mavenClasspathExtractor.extractClasspathFingerprint(project, "compile", none, none,
+                ResolutionPreset.DEFAULT);
+        assertTrue(fixture.setLastModified(fixture.lastModified() - 10000));
+        String rebuilt = mavenClasspathExtractor.extractClasspathFingerprint(project, "compile", none, none,
+                ResolutionPreset.DEFAULT);
+
+        assertSame(classpathEntries, mavenClasspathExtractor.extractClasspathEntries(project, "compile"));
+        assertTrue(classpathEntries.contains(classes.getAbsolutePath()));
+        assertFalse(resolved.equals(built));
+        assertFalse(built.equals(rebuilt));
+        assertEquals(rebuilt, mavenClasspathExtractor.extractClasspathFingerprint(project, "compile", none, none,
+                ResolutionPreset.DEFAULT));
+    }
+
+    @Test
+    public void configuresEachPresetOnce() throws IOException {
+        repository.install("present", "1.0", "");
+        File project = projectDependingOnPresent();
+
+        final List<MavenRequest> configurations = new ArrayList<MavenRequest>();
+        mavenClasspathExtractor = new MavenClasspathExtractor() {
+            @Override
+            protected MavenRequest mavenConfiguration() throws MavenEmbedderException, ComponentLookupException {
+                MavenRequest mavenRequest = super.mavenConfiguration();
+                configurations.add(mavenRequest);
+                return mavenRequest;
+            }
+
+            @Override
+            protected String getLocalRepository(String ignored) {
+                return repository.getLocalRepository().getAbsolutePath();
+            }
+        };
+        List<String> none = Collections.emptyList();
+        List<String> full = mavenClasspathExtractor.extractClasspathEntries(project, "compile", none, none,
+                ResolutionPreset.FULL);
+        mavenClasspathExtractor.extractClasspathEntries(project, "test", none, none, ResolutionPreset.FULL);
+        List<String> fast = mavenClasspathExtractor.extractClasspathEntries(project, "compile", none, none,
+                ResolutionPreset.FAST);
+        mavenClasspathExtractor.extractClasspathEntries(project, "test", none, none, ResolutionPreset.FAST);
+
+        assertEquals(full, fast);
+        assertEquals(2, configurations.size());
+        assertFalse(configurations.get(0).isOffline());
+        assertTrue(configurations.get(1).isOffline());
+        assertFalse(configurations.get(1).isProcessPlugins());
+    }
+
+    @Test
+    public void readsTheSettingsAgainOnceTheyChange() throws IOException {
+        TemporaryMavenRepository otherRepository = new TemporaryMavenRepository();
+        otherRepository.create();
+        try {
+            File first = repository.getLocalRepository();
+            File second = otherRepository.getLocalRepository();
+            repository.install("present", "1.0", "");
+            otherRepository.install("present", "1.0", "");
+            File project = projectDependingOnPresent();
+            File settings = new File(repository.getRoot(), "settings.xml");
+            write(settings, "<settings><localRepository>" + first.getAbsolutePath() + "</localRepository></settings>");
+            mavenClasspathExtractor.setMavenUserSettingsFile(settings);
+
+            assertTrue(mavenClasspathExtractor.extractClasspathEntries(project, "compile").get(1)
+                    .startsWith(first.getAbsolutePath()));
+            long lastModified = settings.lastModified();
+            write(settings, "<settings><localRepository>" + second.getAbsolutePath() + "</localRepository></settings>");
+            assertTrue(settings.setLastModified(lastModified + 2000));
+
+            assertTrue(mavenClasspathExtractor.extractClasspathEntries(project, "compile").get(1)
+                    .startsWith(second.getAbsolutePath()));
+        } finally {
+            otherRepository.delete();
+        }
+    }
+
+    @Test
+    public void logsWhenTheCacheFileIsSkipped() throws IOException {
+        File cacheFile = File.createTempFile("classpath", ".cache");
+        cacheFile.deleteOnExit();
+        write(cacheFile, "1234\t/old/format/pom.xml@test\n\t/some.jar\n");
+        final List<LogRecord> records = new ArrayList<LogRecord>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(MavenClasspathExtractor.class.getName());
+        logger.addHandler(handler);
+        System.setProperty(MavenClasspathExtractor.CACHE_FILE_PROPERTY, cacheFile.getPath());
+        try {
+            new MavenClasspathExtractor();
+        } finally {
+            System.clearProperty(MavenClasspathExtractor.CACHE_FILE_PROPERTY);
+            logger.removeHandler(handler);
+        }
+
+        assertEquals(1, records.size());
+        assertEquals(Level.WARNING, records.get(0).getLevel());
+        assertTrue(records.get(0).getMessage().contains(cacheFile.getAbsolutePath()));
+    }
 }
@@ -0,0 +1,361 @@
+package fitnesse.wikitext.widgets;
+
+import fitnesse.wikitext.parser.Symbol;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import static fitnesse.wikitext.widgets.TemporaryMavenRepository.dependency;
+import static fitnesse.wikitext.widgets.TemporaryMavenRepository.pom;
+
+/**
+ * Load test harness simulating concurrent wiki traffic. A number of threads render (<code>toTarget</code>) and
+ * run (<code>providePaths</code>) pages referring to a set of synthetic poms. Their dependencies are served from a
+ * temporary <code>file://</code> repository (a mirror of every remote repository) into an empty local repository,
+ * so the first requests download concurrently. Some requests touch their pom first, forcing a new resolution while
+ * other threads read the same pom. Without the classpath cache, every request uses patterns of its own, so it is
+ * resolved instead of served from the cache.
+ * <p/>
+ * Reports throughput and latency percentiles, and fails on exceptions, on classpaths that differ from a
+ * sequential resolution into another local repository and on local repository files that differ from the remote
+ * ones, are left behind (like <code>*.lastUpdated</code> markers) or are missing from
+ * <code>_maven.repositories</code>.
+ * <p/>
+ * Run as <code>java fitnesse.wikitext.widgets.MavenClasspathLoadHarness [threads] [requestsPerThread] [poms]
+ * [touchPercentage] [cache|nocache]</code> with the test classpath.
+ */
+public class MavenClasspathLoadHarness {
+
+    private static final int LIBRARIES = 30;
+    private static final String MIRROR_ID = "load";
+
+    private final int threads;
+    private final int requestsPerThread;
+    private final int poms;
+    private final int touchPercentage;
+    private final boolean bypassCache;
+
+    public MavenClasspathLoadHarness(int threads, int requestsPerThread, int poms, int touchPercentage) {
+        this(threads, requestsPerThread, poms, touchPercentage, false);
+    }
+
+    public MavenClasspathLoadHarness(int threads, int requestsPerThread, int poms, int touchPercentage,
+                                     boolean bypassCache) {
+        this.threads = threads;
+        this.requestsPerThread = requestsPerThread;
+        this.poms = poms;
+        this.touchPercentage = touchPercentage;
+        this.bypassCache = bypassCache;
+    }
+
+    public static void main(String[] args) throws Exception {
+        MavenClasspathLoadHarness harness = new MavenClasspathLoadHarness(
+                args.length > 0 ? Integer.parseInt(args[0]) : 50,
+                args.length > 1 ? Integer.parseInt(args[1]) : 20,
+                args.length > 2 ? Integer.parseInt(args[2]) : 10,
+                args.length > 3 ? Integer.parseInt(args[3]) : 5,
+                args.length > 4 && "nocache".equals(args[4]));
+        Report report = harness.run();
+        System.out.println(report);
+        System.exit(report.isClean() ? 0 : 1);
+    }
+
+    public Report run() throws Exception {
+        TemporaryMavenRepository remote = new TemporaryMavenRepository();
+        TemporaryMavenRepository repository = new TemporaryMavenRepository();
+        TemporaryMavenRepository reference = new TemporaryMavenRepository();
+        try {
+            remote.create();
+            repository.create();
+            reference.create();
+            return run(remote, repository, reference);
+        } finally {
+            remote.delete();
+            repository.delete();
+            reference.delete();
+        }
+    }
+
+    private Report run(TemporaryMavenRepository remote, TemporaryMavenRepository repository,
+                       TemporaryMavenRepository reference) throws Exception {
+        for (int i = 0; i < LIBRARIES; i++) {
+            installLibrary(remote, i);
+        }
+        final List<File> pomFiles = new ArrayList<File>();
+        for (int i = 0; i < poms; i++) {
+            pomFiles.add(writeProject(repository, i));
+        }
+        File settings = new File(repository.getRoot(), "settings.xml");
+        TemporaryMavenRepository.write(settings, "<settings><mirrors><mirror><id>" + MIRROR_ID + "</id>"
+                + "<mirrorOf>*</mirrorOf><url>" + remote.getLocalRepository().toURI() + "</url></mirror></mirrors>"
+                + "</settings>");
+
+        final Map<File, List<String>> expected = new HashMap<File, List<String>>();
+        MavenClasspathExtractor sequentialExtractor = reference.extractor();
+        sequentialExtractor.setMavenUserSettingsFile(settings);
+        String referencePath = reference.getLocalRepository().getAbsolutePath();
+        String localPath = repository.getLocalRepository().getAbsolutePath();
+        for (File pomFile : pomFiles) {
+            List<String> classpath = new ArrayList<String>();
+            for (String entry : sequentialExtractor.extractClasspathEntries(pomFile)) {
+                classpath.add(entry.startsWith(referencePath) ? localPath + entry.substring(referencePath.length())
+                        : entry);
+            }
+            expected.put(pomFile, classpath);
+        }
+
+        MavenClasspathExtractor extractor = repository.extractor();
+        extractor.setMavenUserSettingsFile(settings);
+        final MavenClasspathSymbolType symbolType = new MavenClasspathSymbolType();
+        symbolType.setMavenClasspathExtractor(extractor);
+
+        final Report report = new Report(threads * requestsPerThread);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            final Random random = new Random(t);
+            workers.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    for (int r = 0; r < requestsPerThread; r++) {
+                        File pomFile = pomFiles.get(random.nextInt(pomFiles.size()));
+                        if (random.nextInt(100) < touchPercentage) {
+                            touch(pomFile);
+                        }
+                        Symbol symbol = new Symbol(symbolType);
+                        // a pattern matching nothing still makes a classpath of its own
+                        symbol.add(bypassCache ? pomFile.getPath() + ";exclude=load.none:request" + thread + "x" + r
+                                : pomFile.getPath());
+
+                        long begin = System.nanoTime();
+                        try {
+                            Collection<String> paths = random.nextBoolean()
+                                    ? symbolType.providePaths(null, symbol)
+                                    : classpathFromHtml(symbolType.toTarget(null, symbol));
+                            if (!new ArrayList<String>(paths).equals(expected.get(pomFile))) {
+                                report.mismatch(pomFile + " resolved to " + paths);
+                            }
+                        } catch (Throwable e) {
+                            report.error(pomFile + ": " + e);
+                        } finally {
+                            report.latency(System.nanoTime() - begin);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        report.elapsed(System.nanoTime() - begin);
+        executor.shutdown();
+
+        checkLocalRepository(report, checksums(remote.getLocalRepository()), repository.getLocalRepository());
+        return report;
+    }
+
+    private static List<String> classpathFromHtml(String html) {
+        List<String> classpath = new ArrayList<String>();
+        String marker = "classpath: ";
+        for (int i = html.indexOf(marker); i >= 0; i = html.indexOf(marker, i)) {
+            i += marker.length();
+            classpath.add(html.substring(i, html.indexOf('<', i)));
+        }
+        return classpath;
+    }
+
+    private static synchronized void touch(File pomFile) {
+        // Keep modification times distinct even on file systems with a coarse resolution.
+        pomFile.setLastModified(Math.max(System.currentTimeMillis(), pomFile.lastModified() + 1000));
+    }
+
+    // ----------------------------------------------------------------------
+    // Synthetic projects and repository
+    // ----------------------------------------------------------------------
+
+    private void installLibrary(TemporaryMavenRepository repository, int index) throws IOException {
+        StringBuilder dependencies = new StringBuilder();
+        for (int dep = index + 1; dep < Math.min(LIBRARIES, index + 3); dep++) {
+            dependencies.append(dependency("load.group" + (dep % 5), "lib" + dep, "1.0", ""));
+        }
+        repository.install("load.group" + (index % 5), "lib" + index, "1.0", dependencies.toString());
+    }
+
+    private File writeProject(TemporaryMavenRepository repository, int index) throws IOException {
+        Random random = new Random(index);
+        StringBuilder dependencies = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            int lib = random.nextInt(LIBRARIES);
+            dependencies.append(dependency("load.group" + (lib % 5), "lib" + lib, "1.0",
+                    i == 3 ? "<scope>test</scope>" : ""));
+        }
+        return repository.writeProject("project" + index + "/pom.xml",
+                pom("load.projects", "project" + index, "1.0", "<dependencies>" + dependencies + "</dependencies>"));
+    }
+
+    /**
+     * Every file in the local repository must be a copy of the remote one, or a <code>_maven.repositories</code>
+     * file naming the mirror for each artifact file next to it.
+     */
+    private static void checkLocalRepository(Report report, Map<String, Long> remoteChecksums, File localRepository)
+            throws IOException {
+        for (Map.Entry<String, Long> file : checksums(localRepository).entrySet()) {
+            String path = file.getKey();
+            Long remoteChecksum = remoteChecksums.get(path);
+            if (path.endsWith("_maven.repositories")) {
+                checkRemoteRepositories(report, new File(localRepository, path));
+            } else if (remoteChecksum == null) {
+                report.corruption("left behind " + path);
+            } else if (!remoteChecksum.equals(file.getValue())) {
+                report.corruption("modified " + path);
+            }
+        }
+    }
+
+    private static void checkRemoteRepositories(Report report, File remoteRepositories) throws IOException {
+        Properties recorded = new Properties();
+        InputStream in = new FileInputStream(remoteRepositories);
+        try {
+            recorded.load(in);
+        } catch (IllegalArgumentException e) {
+            report.corruption("unreadable " + remoteRepositories + ": " + e);
+            return;
+        } finally {
+            in.close();
+        }
+        for (File artifact : remoteRepositories.getParentFile().listFiles()) {
+            String name = artifact.getName();
+            if ((name.endsWith(".jar") || name.endsWith(".pom")) && !recorded.containsKey(name + ">" + MIRROR_ID)) {
+                report.corruption("not recorded in " + remoteRepositories + ": " + name);
+            }
+        }
+    }
+
+    private static Map<String, Long> checksums(File dir) throws IOException {
+        Map<String, Long> checksums = new TreeMap<String, Long>();
+        collectChecksums(dir, dir.getAbsolutePath().length() + 1, checksums);
+        return checksums;
+    }
+
+    private static void collectChecksums(File dir, int prefixLength, Map<String, Long> checksums) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectChecksums(file, prefixLength, checksums);
+            } else {
+                CRC32 crc = new CRC32();
+                InputStream in = new FileInputStream(file);
+                try {
+                    byte[] buffer = new byte[8192];
+                    for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                        crc.update(buffer, 0, n);
+                    }
+                } finally {
+                    in.close();
+                }
+                checksums.put(file.getAbsolutePath().substring(prefixLength), crc.getValue());
+            }
+        }
+    }
+
+    public static class Report {
+        private final long[] latencies;
+        private final AtomicInteger requests = new AtomicInteger();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> mismatches = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> corruptions = Collections.synchronizedList(new ArrayList<String>());
+        private long elapsedNanos;
+
+        Report(int expectedRequests) {
+            latencies = new long[expectedRequests];
+        }
+
+        void latency(long nanos) {
+            latencies[requests.getAndIncrement()] = nanos;
+        }
+
+        void error(String error) {
+            errors.add(error);
+        }
+
+        void mismatch(String mismatch) {
+            mismatches.add(mismatch);
+        }
+
+        void elapsed(long nanos) {
+            elapsedNanos = nanos;
+        }
+
+        void corruption(String corruption) {
+            corruptions.add(corruption);
+        }
+
+        public boolean isClean() {
+            return errors.isEmpty() && mismatches.isEmpty() && corruptions.isEmpty();
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public List<String> getMismatches() {
+            return mismatches;
+        }
+
+        public List<String> getCorruptions() {
+            return corruptions;
+        }
+
+        public double getThroughput() {
+            return requests.get() / (elapsedNanos / 1e9);
+        }
+
+        public double percentileMillis(int percentile) {
+            long[] sorted = Arrays.copyOf(latencies, requests.get());
+            Arrays.sort(sorted);
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests in %.1f s: %.1f requests/s, p50 %.1f ms, p95 %.1f ms, p99 %.1f ms%n"
+                    + "%d errors, %d mismatching classpaths, %d repository problems%s",
+                    requests.get(), elapsedNanos / 1e9, getThroughput(),
+                    percentileMillis(50), percentileMillis(95), percentileMillis(99),
+                    errors.size(), mismatches.size(), corruptions.size(), details());
+        }
+
+        private String details() {
+            List<List<String>> allProblems = new ArrayList<List<String>>();
+            allProblems.add(errors);
+            allProblems.add(mismatches);
+            allProblems.add(corruptions);
+
+            StringBuilder details = new StringBuilder();
+            for (List<String> problems : allProblems) {
+                synchronized (problems) {
+                    for (String problem : problems.subList(0, Math.min(5, problems.size()))) {
+                        details.append(String.format("%n  ")).append(problem);
+                    }
+                }
+            }
+            return details.toString();
+        }
+    }
+}
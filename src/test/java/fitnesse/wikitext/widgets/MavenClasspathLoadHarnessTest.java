@@ -0,0 +1,22 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class MavenClasspathLoadHarnessTest {
+
+    @Test
+    public void concurrentPageRequestsResolveConsistently() throws Exception {
+        MavenClasspathLoadHarness.Report report = new MavenClasspathLoadHarness(4, 5, 3, 20).run();
+
+        assertTrue(report.toString(), report.isClean());
+    }
+
+    @Test
+    public void concurrentResolutionsBypassingTheCacheResolveConsistently() throws Exception {
+        MavenClasspathLoadHarness.Report report = new MavenClasspathLoadHarness(4, 3, 3, 0, true).run();
+
+        assertTrue(report.toString(), report.isClean());
+    }
+}
@@ -0,0 +1,72 @@
+package fitnesse.wikitext.widgets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MavenClasspathPreResolverTest {
+
+    private static final List<String> NONE = Collections.emptyList();
+
+    private File root;
+    private MavenClasspathExtractor mavenClasspathExtractor;
+    private MavenClasspathPreResolver preResolver;
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("FitNesseRoot", "");
+        assertTrue(root.delete());
+
+        writePage("FrontPage", "!contents\n!pomFile pom.xml\n");
+        writePage("SuiteOne/TestOne", "!pomFile modules/one/pom.xml@compile\n|!pomFile modules/two/pom.xml|\n");
+        writePage("SuiteTwo", "!pomFile pom.xml\n!define TEST_SYSTEM {slim}\n");
+
+        mavenClasspathExtractor = mock(MavenClasspathExtractor.class);
+        preResolver = new MavenClasspathPreResolver(mavenClasspathExtractor, 2);
+    }
+
+    @Test
+    public void findsDistinctPomFileDirectivesIncludingScopes() throws IOException {
+        assertEquals(Arrays.asList("pom.xml", "modules/one/pom.xml@compile", "modules/two/pom.xml"),
+                Arrays.asList(preResolver.findPomFileDirectives(root).toArray()));
+    }
+
+    @Test
+    public void resolvesEveryDirectiveAndWritesTheCache() throws Exception {
+        File cacheFile = new File(root, "classpath.cache");
+        when(mavenClasspathExtractor.extractClasspathEntries(new File("modules/two/pom.xml"), "test", NONE, NONE,
+                ResolutionPreset.FULL))
+                .thenThrow(new MavenClasspathExtractionException(new IOException("no such pom")));
+        when(mavenClasspathExtractor.extractClasspathEntries(new File("pom.xml"), "test", NONE, NONE,
+                ResolutionPreset.FULL))
+                .thenReturn(Arrays.asList("classes", "dependency.jar"));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        boolean resolvedAll = preResolver.preResolve(root, cacheFile, new PrintStream(output));
+
+        assertFalse(resolvedAll);
+        verify(mavenClasspathExtractor).extractClasspathEntries(new File("modules/one/pom.xml"), "compile", NONE, NONE,
+                ResolutionPreset.FULL);
+        verify(mavenClasspathExtractor).saveClasspathCache(cacheFile);
+        assertTrue(output.toString().contains("pom.xml  2 entries"));
+        assertTrue(output.toString().contains("modules/two/pom.xml  FAILED"));
+    }
+
+    private void writePage(String path, String content) throws IOException {
+        File page = new File(root, path);
+        assertTrue(page.mkdirs());
+        Writer writer = new FileWriter(new File(page, "content.txt"));
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package fitnesse.wikitext.widgets;
 
+import fitnesse.wiki.InMemoryPage;
 import fitnesse.wikitext.parser.Parser;
+import fitnesse.wikitext.parser.ParsingPage;
 import fitnesse.wikitext.parser.Symbol;
+import fitnesse.wikitext.parser.SymbolProvider;
 import fitnesse.wikitext.parser.SymbolType;
+import fitnesse.wikitext.parser.WikiSourcePage;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -10,6 +14,7 @@ import util.Maybe;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.Collections;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -33,9 +38,8 @@ public class MavenClasspathSymbolTypeTest {
 
     @Test
     public void canParseAProperDirective() {
-        when(parser.moveNext(1))
-                .thenReturn(new Symbol(SymbolType.Whitespace))
-                .thenReturn(new Symbol(SymbolType.Text, "thePomFile"));
+        when(parser.moveNext(1)).thenReturn(new Symbol(SymbolType.Whitespace));
+        when(parser.parseLiteral(any(SymbolType.class))).thenReturn("thePomFile");
 
         Maybe<Symbol> result = mavenClasspathSymbolType.parse(symbol, parser);
         assertNotNull(result);
@@ -44,6 +48,69 @@ public class MavenClasspathSymbolTypeTest {
         verify(symbol).add("thePomFile");
     }
 
+    @Test
+    public void readsPatternsAsTheyAreWritten() throws Exception {
+        assertEquals("thePomFile;exclude=com.acme:FooBar,org.slf4j:*",
+                parsedArgument("!pomFile thePomFile;exclude=com.acme:FooBar,org.slf4j:*\nSomePage\n"));
+        assertEquals("thePomFile@compile;include=com.acme:FooBar", parsedArgument(
+                "!pomFile thePomFile@compile;include=com.acme:FooBar and more text"));
+    }
+
+    @Test
+    public void readsTheArgumentUpToTheEndOfThePage() throws Exception {
+        assertEquals("thePomFile#fast;exclude=com.acme:FooBar",
+                parsedArgument("!pomFile thePomFile#fast;exclude=com.acme:FooBar"));
+    }
+
+    private String parsedArgument(String wikiText) throws Exception {
+        SymbolProvider provider = new SymbolProvider(SymbolProvider.wikiParsingProvider).add(mavenClasspathSymbolType);
+        Symbol directive = find(Parser.make(new ParsingPage(new WikiSourcePage(InMemoryPage.makeRoot("RooT"))),
+                wikiText, provider).parse());
+        assertNotNull(wikiText, directive);
+        return directive.childAt(0).getContent();
+    }
+
+    private Symbol find(Symbol symbol) {
+        if (symbol.getType() == mavenClasspathSymbolType) {
+            return symbol;
+        }
+        for (Symbol child : symbol.getChildren()) {
+            Symbol directive = find(child);
+            if (directive != null) {
+                return directive;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void passesPatternsToTheExtractor() {
+        Symbol child = mock(Symbol.class);
+
+        when(symbol.childAt(0)).thenReturn(child);
+        when(child.getContent()).thenReturn("thePomFile@compile;exclude=org.slf4j:*");
+
+        when(mavenClasspathExtractor.extractClasspathEntries(new File("thePomFile"), "compile",
+                Collections.<String>emptyList(), Arrays.asList("org.slf4j:*"), ResolutionPreset.FULL))
+                .thenReturn(Arrays.asList("test1"));
+
+        assertArrayEquals(new Object[] { "test1" }, mavenClasspathSymbolType.providePaths(null, symbol).toArray());
+    }
+
+    @Test
+    public void providesTheClasspathFingerprint() {
+        Symbol child = mock(Symbol.class);
+
+        when(symbol.childAt(0)).thenReturn(child);
+        when(child.getContent()).thenReturn("thePomFile@runtime");
+
+        when(mavenClasspathExtractor.extractClasspathFingerprint(new File("thePomFile"), "runtime",
+                Collections.<String>emptyList(), Collections.<String>emptyList(), ResolutionPreset.FULL))
+                .thenReturn("cafe");
+
+        assertEquals("cafe", mavenClasspathSymbolType.provideFingerprint(null, symbol));
+    }
+
     @Test
     public void translatesToClasspathEntries() {
         Symbol child = mock(Symbol.class);
@@ -51,7 +118,8 @@ public class MavenClasspathSymbolTypeTest {
         when(symbol.childAt(0)).thenReturn(child);
         when(child.getContent()).thenReturn("thePomFile");
 
-        when(mavenClasspathExtractor.extractClasspathEntries(any(File.class), isA(String.class)))
+        when(mavenClasspathExtractor.extractClasspathEntries(any(File.class), isA(String.class),
+                anyListOf(String.class), anyListOf(String.class), any(ResolutionPreset.class)))
                 .thenReturn(Arrays.asList("test1", "test2"));
 
         assertEquals("<span class=\"meta\">classpath: test1</span><br/><span class=\"meta\">classpath: test2</span><br/>"
@@ -65,11 +133,61 @@ public class MavenClasspathSymbolTypeTest {
         when(symbol.childAt(0)).thenReturn(child);
         when(child.getContent()).thenReturn("thePomFile");
 
-        when(mavenClasspathExtractor.extractClasspathEntries(any(File.class), isA(String.class)))
+        when(mavenClasspathExtractor.extractClasspathEntries(any(File.class), isA(String.class),
+                anyListOf(String.class), anyListOf(String.class), any(ResolutionPreset.class)))
                 .thenReturn(Arrays.asList("test1", "test2"));
 
         assertArrayEquals(new Object[] { "test1", "test2" }, mavenClasspathSymbolType.providePaths(null, symbol).toArray());
     }
 
+    @Test
+    public void rendersProgressWhileResolvingInTheBackground() {
+        Symbol child = mock(Symbol.class);
+
+        when(symbol.childAt(0)).thenReturn(child);
+        when(child.getContent()).thenReturn("thePomFile");
+
+        when(mavenClasspathExtractor.resolveInBackground(new File("thePomFile"), "test",
+                Collections.<String>emptyList(), Collections.<String>emptyList(), ResolutionPreset.FULL))
+                .thenReturn(new ClasspathResolution());
+
+        mavenClasspathSymbolType.setProgressive(true);
+        String html = mavenClasspathSymbolType.toTarget(null, symbol);
+
+        assertTrue(html.contains("<span class=\"meta\">resolving classpath of thePomFile...</span>"));
+        assertTrue(html.contains("?responder=mavenClasspath&pomFile=thePomFile"));
+        verify(mavenClasspathExtractor, never()).extractClasspathEntries(any(File.class), isA(String.class),
+                anyListOf(String.class), anyListOf(String.class), any(ResolutionPreset.class));
+    }
+
+    @Test
+    public void rendersAResolvedClasspathInProgressiveMode() {
+        Symbol child = mock(Symbol.class);
+
+        when(symbol.childAt(0)).thenReturn(child);
+        when(child.getContent()).thenReturn("thePomFile");
+
+        when(mavenClasspathExtractor.resolveInBackground(new File("thePomFile"), "test",
+                Collections.<String>emptyList(), Collections.<String>emptyList(), ResolutionPreset.FULL))
+                .thenReturn(ClasspathResolution.completed(new CompactClasspath(new PathSegmentTable(),
+                        Arrays.asList("test1"), "cafe")));
+
+        mavenClasspathSymbolType.setProgressive(true);
 
+        assertEquals("<span class=\"meta\">classpath: test1</span><br/>", mavenClasspathSymbolType.toTarget(null, symbol));
+    }
+
+    @Test
+    public void passesThePresetToTheExtractor() {
+        Symbol child = mock(Symbol.class);
+
+        when(symbol.childAt(0)).thenReturn(child);
+        when(child.getContent()).thenReturn("thePomFile@compile#fast");
+
+        when(mavenClasspathExtractor.extractClasspathEntries(new File("thePomFile"), "compile",
+                Collections.<String>emptyList(), Collections.<String>emptyList(), ResolutionPreset.FAST))
+                .thenReturn(Arrays.asList("test1"));
+
+        assertArrayEquals(new Object[] { "test1" }, mavenClasspathSymbolType.providePaths(null, symbol).toArray());
+    }
 }
@@ -0,0 +1,145 @@
+package fitnesse.wikitext.widgets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Local Maven repository with synthetic artifacts in a temporary directory, next to which projects can be written.
+ * Classpaths of those projects resolve without any remote repository. Call {@link #create()} before and
+ * {@link #delete()} after use.
+ */
+public class TemporaryMavenRepository {
+
+    public static final String GROUP_ID = "fitnesse";
+
+    private File root;
+
+    public void create() throws IOException {
+        root = File.createTempFile("maven-repository", "");
+        if (!root.delete() || !getLocalRepository().mkdirs()) {
+            throw new IOException("Unable to create " + root);
+        }
+    }
+
+    public void delete() {
+        if (root != null) {
+            delete(root);
+            root = null;
+        }
+    }
+
+    /**
+     * The directory holding the local repository and the projects.
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    public File getLocalRepository() {
+        return new File(root, "repository");
+    }
+
+    /**
+     * Extractor resolving from this repository instead of the one the Maven settings point to.
+     */
+    public MavenClasspathExtractor extractor() {
+        final File localRepository = getLocalRepository();
+        return new MavenClasspathExtractor() {
+            @Override
+            protected String getLocalRepository(String ignored) {
+                return localRepository.getAbsolutePath();
+            }
+        };
+    }
+
+    public File install(String artifactId, String version, String dependencies) throws IOException {
+        return install(GROUP_ID, artifactId, version, dependencies);
+    }
+
+    /**
+     * Installs a pom with the given dependency declarations and a jar holding a single text file.
+     *
+     * @return the jar
+     */
+    public File install(String groupId, String artifactId, String version, String dependencies) throws IOException {
+        File dir = new File(getLocalRepository(), groupId.replace('.', File.separatorChar) + File.separator
+                + artifactId + File.separator + version);
+        if (!dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        write(new File(dir, artifactId + "-" + version + ".pom"),
+                pom(groupId, artifactId, version, "<dependencies>" + dependencies + "</dependencies>"));
+
+        File jar = new File(dir, artifactId + "-" + version + ".jar");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry(groupId.replace('.', '/') + "/" + artifactId + ".txt"));
+            out.write(artifactId.getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    /**
+     * Writes a pom below the root directory. Its modification time always changes, even on file systems with a
+     * coarse resolution, as the classpath cache goes by modification times.
+     */
+    public File writeProject(String path, String pom) throws IOException {
+        File pomFile = new File(root, path);
+        if (!pomFile.getParentFile().isDirectory() && !pomFile.getParentFile().mkdirs()) {
+            throw new IOException("Unable to create " + pomFile.getParentFile());
+        }
+        long lastModified = pomFile.lastModified();
+        write(pomFile, pom);
+        if (lastModified != 0 && pomFile.lastModified() <= lastModified) {
+            if (!pomFile.setLastModified(lastModified + 2000)) {
+                throw new IOException("Unable to touch " + pomFile);
+            }
+        }
+        return pomFile;
+    }
+
+    public static String pom(String artifactId, String version, String content) {
+        return pom(GROUP_ID, artifactId, version, content);
+    }
+
+    public static String pom(String groupId, String artifactId, String version, String content) {
+        return "<project><modelVersion>4.0.0</modelVersion><groupId>" + groupId + "</groupId><artifactId>"
+                + artifactId + "</artifactId><version>" + version + "</version>" + content + "</project>";
+    }
+
+    public static String dependency(String artifactId, String version, String extra) {
+        return dependency(GROUP_ID, artifactId, version, extra);
+    }
+
+    public static String dependency(String groupId, String artifactId, String version, String extra) {
+        return "<dependency><groupId>" + groupId + "</groupId><artifactId>" + artifactId + "</artifactId><version>"
+                + version + "</version>" + extra + "</dependency>";
+    }
+
+    public static void write(File file, String content) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}